@@ -0,0 +1,196 @@
+package com.apple.salesassistant.chat.api;
+
+import com.apple.salesassistant.Application;
+import com.sun.net.httpserver.HttpServer;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load test of {@code POST /v1/messages:complete}, run once per thread mode against the same stub LLM.
+ * The stub answers after a fixed delay, so the server spends nearly all of each request waiting, which is the
+ * case virtual threads are for: with platform threads throughput is capped near
+ * {@code server.tomcat.threads.max / llm delay} and the rest queue, with virtual threads it is bounded by CPU.
+ * The app boots with an in-memory H2 database and the LLM client's connection limit raised to the client count
+ * (a hosted provider with headroom). In virtual mode JFR {@code jdk.VirtualThreadPinned} events are counted and
+ * the top application frames reported, to catch {@code synchronized} sections that block on the request path.
+ * <pre>
+ * ./gradlew loadTest -PloadArgs='--clients 1000 --seconds 20 --llm-ms 500 --modes platform,virtual [--log-level INFO]'
+ * </pre>
+ */
+public final class ChatLoadTest {
+
+    private ChatLoadTest() {}
+
+    private static final String BODY = "{\"message\":\"What were iPhone units in FY2024 for APAC?\"}";
+
+    record Result(String mode, long ok, long errors, double seconds, long[] latenciesMs, long pinned,
+                  Map<String, Long> pinnedAt) {
+
+        double throughput() { return ok / seconds; }
+
+        long percentile(double p) {
+            if (latenciesMs.length == 0) return 0;
+            return latenciesMs[Math.min(latenciesMs.length - 1, (int) Math.ceil(p * latenciesMs.length) - 1)];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opts.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int clients = Integer.parseInt(opts.getOrDefault("clients", "1000"));
+        int seconds = Integer.parseInt(opts.getOrDefault("seconds", "20"));
+        int warmup = Integer.parseInt(opts.getOrDefault("warmup", "5"));
+        int llmMs = Integer.parseInt(opts.getOrDefault("llm-ms", "500"));
+        List<String> modes = List.of(opts.getOrDefault("modes", "platform,virtual").split(","));
+        String logLevel = opts.getOrDefault("log-level", "WARN");   // INFO puts the audit/console appenders on the path
+
+        HttpServer llm = stubLlm(llmMs);
+        try {
+            List<Result> results = new ArrayList<>();
+            for (String mode : modes) results.add(run(mode, clients, warmup, seconds, llm.getAddress().getPort(), logLevel));
+
+            System.out.printf("%nclients=%d llm-ms=%d seconds=%d cpus=%d tomcat.threads.max=200%n",
+                    clients, llmMs, seconds, Runtime.getRuntime().availableProcessors());
+            System.out.printf("%-9s %10s %8s %8s %8s %8s %8s %8s%n", "mode", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms", "errors", "pinned");
+            for (Result r : results) {
+                System.out.printf("%-9s %10.1f %8d %8d %8d %8d %8d %8s%n", r.mode(), r.throughput(),
+                        r.percentile(0.50), r.percentile(0.95), r.percentile(0.99), r.percentile(1.0), r.errors(),
+                        r.mode().equals("virtual") ? String.valueOf(r.pinned()) : "-");
+                r.pinnedAt().forEach((frame, n) -> System.out.printf("          pinned %d x at %s%n", n, frame));
+            }
+        } finally {
+            llm.stop(0);
+        }
+    }
+
+    /** Ollama-shaped {@code /api/chat} that sleeps {@code delayMs} before a non-streamed answer. */
+    static HttpServer stubLlm(int delayMs) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        server.setExecutor(Executors.newCachedThreadPool());   // stands in for a remote server: keep it off the carriers
+        server.createContext("/api/chat", ex -> {
+            ex.getRequestBody().readAllBytes();
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = """
+                    {"model":"stub","message":{"role":"assistant","content":"APAC iPhone units were 48.2M in FY2024."},"done":true}"""
+                    .getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json");
+            ex.sendResponseHeaders(200, body.length);
+            ex.getResponseBody().write(body);
+            ex.close();
+        });
+        server.start();
+        return server;
+    }
+
+    static Result run(String mode, int clients, int warmup, int seconds, int llmPort, String logLevel) throws Exception {
+        boolean virtual = mode.equals("virtual");
+        ConfigurableApplicationContext app = new SpringApplicationBuilder(Application.class).run(
+                "--server.port=0",
+                "--spring.threads.virtual.enabled=" + virtual,
+                "--llm.provider=ollama",
+                "--ollama.base-url=http://127.0.0.1:" + llmPort,
+                "--ollama.http.max-connections=" + clients,
+                "--spring.datasource.url=jdbc:h2:mem:load-" + mode + ";DB_CLOSE_DELAY=-1",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--logging.level.com.apple.salesassistant=" + logLevel);
+        AtomicLong pinned = new AtomicLong();
+        Map<String, Long> pinnedAt = new ConcurrentHashMap<>();
+        RecordingStream jfr = new RecordingStream();
+        try (jfr; app) {
+            if (virtual) {
+                jfr.enable("jdk.VirtualThreadPinned").withStackTrace().withThreshold(Duration.ZERO);
+                jfr.onEvent("jdk.VirtualThreadPinned", e -> {
+                    pinned.incrementAndGet();
+                    if (e.getStackTrace() == null) return;
+                    e.getStackTrace().getFrames().stream()
+                            .filter(f -> f.getMethod().getType().getName().startsWith("com.apple"))
+                            .findFirst()
+                            .map(ChatLoadTest::frame)
+                            .ifPresent(f -> pinnedAt.merge(f, 1L, Long::sum));
+                });
+                jfr.startAsync();
+            }
+            URI uri = URI.create("http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port")
+                    + "/v1/messages:complete");
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(Executors.newVirtualThreadPerTaskExecutor())
+                    .build();
+
+            drive(client, uri, clients, warmup);
+            long pinnedBefore = pinned.get();
+            pinnedAt.clear();
+            Result r = drive(client, uri, clients, seconds);
+            if (virtual) jfr.stop();
+            return new Result(mode, r.ok(), r.errors(), r.seconds(), r.latenciesMs(), pinned.get() - pinnedBefore,
+                    new TreeMap<>(pinnedAt));
+        }
+    }
+
+    private static String frame(RecordedFrame f) {
+        return f.getMethod().getType().getName() + "." + f.getMethod().getName() + ":" + f.getLineNumber();
+    }
+
+    /** {@code clients} virtual threads each send requests back to back until the deadline. */
+    static Result drive(HttpClient client, URI uri, int clients, int seconds) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(120))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(BODY))
+                .build();
+        long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        Queue<long[]> perClient = new ConcurrentLinkedQueue<>();
+        AtomicLong ok = new AtomicLong(), errors = new AtomicLong();
+        long start = System.nanoTime();
+        try (var threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                threads.execute(() -> {
+                    long[] lat = new long[1024];
+                    int n = 0;
+                    while (System.nanoTime() < deadline) {
+                        long t0 = System.nanoTime();
+                        try {
+                            HttpResponse<String> resp = client.send(request, HttpResponse.BodyHandlers.ofString());
+                            if (resp.statusCode() != 200) {
+                                errors.incrementAndGet();
+                                continue;
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        if (n == lat.length) lat = Arrays.copyOf(lat, n * 2);
+                        lat[n++] = (System.nanoTime() - t0) / 1_000_000;
+                        ok.incrementAndGet();
+                    }
+                    perClient.add(Arrays.copyOf(lat, n));
+                });
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long[] all = perClient.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        return new Result("", ok.get(), errors.get(), elapsed, all, 0, Map.of());
+    }
+}
@@ -0,0 +1,52 @@
+package com.apple.salesassistant.chat.kb;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/** Benchmark state: a generated corpus of {@code chunks} sections on disk, shared by all benchmarks in a trial. */
+@State(Scope.Benchmark)
+public class KbCorpus {
+
+  @Param({"10", "10000", "100000"})
+  public int chunks;
+
+  public Path dir;
+
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    dir = Files.createTempDirectory("kb-bench-");
+    KbCorpusGenerator.write(dir, chunks, 42);
+  }
+
+  @TearDown(Level.Trial)
+  public void delete() throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+    }
+  }
+
+  /** Environment serving this corpus, with retrieval caching off so every call does the work. */
+  public StandardEnvironment env(String... overrides) {
+    Map<String, Object> props = new HashMap<>();
+    props.put("kb.path", dir.toUri().toString());
+    props.put("kb.cache.enabled", "false");
+    props.put("kb.vector.embedder", "hashing");
+    for (int i = 0; i + 1 < overrides.length; i += 2) props.put(overrides[i], overrides[i + 1]);
+    var env = new StandardEnvironment();
+    env.getPropertySources().addFirst(new MapPropertySource("bench", props));
+    return env;
+  }
+
+  public static final String[] QUERIES = {
+          "APAC iPhone revenue", "services growth", "EMEA Mac units FY2024", "iPad ASP Japan",
+          "Wearables gross margin", "Greater China iPhone SKU details", "AppleCare attach rate AMER"};
+}
@@ -0,0 +1,74 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Writes a synthetic KB shaped like the real one: markdown sections per product, region and fiscal year whose
+ * titles drive role/scope inference ("Details", "SKU", "Confidential", "Executive Summary") and whose bodies
+ * carry figures and tag words (iphone, services, apac, emea, amer). Each section fits one chunk at the default
+ * token budget, so {@code chunks} sections give about that many chunks. Output is one file per
+ * {@value #SECTIONS_PER_FILE} sections under per-region directories, streamed so 1M chunks need no heap.
+ * <pre>
+ * ./gradlew kbCorpus -PkbCorpusOut=build/kb/corpus -PkbCorpusChunks=1000000
+ * </pre>
+ */
+public final class KbCorpusGenerator {
+  private KbCorpusGenerator() {}
+
+  static final int SECTIONS_PER_FILE = 1000;
+
+  private static final String[] PRODUCTS = {"iPhone", "Mac", "iPad", "Wearables", "Services", "AppleCare", "iCloud", "Apple Music"};
+  private static final String[] REGIONS = {"AMER", "EMEA", "APAC", "Greater China", "Japan"};
+  private static final String[] KINDS = {
+          "Executive Summary", "Summary", "Overview", "Details", "SKU Details", "Unit Details",
+          "Channel Mix", "Internal Notes", "Confidential Forecast"};
+  private static final String[] NOTES = {
+          "Services attach rate rose with new subscriptions",
+          "channel inventory normalized after the launch quarter",
+          "promotions in emea lifted units but diluted ASP",
+          "apac demand shifted toward Pro models",
+          "amer carrier deals drove upgrades",
+          "iphone trade-in volume grew double digits",
+          "supply constraints eased late in the quarter"};
+
+  public static void main(String[] args) throws IOException {
+    Path out = Path.of(args.length > 0 ? args[0] : "build/kb/corpus");
+    int chunks = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+    long t0 = System.currentTimeMillis();
+    int files = write(out, chunks, 42);
+    System.out.printf("Wrote %d sections in %d files to %s in %d ms%n", chunks, files, out, System.currentTimeMillis() - t0);
+  }
+
+  /** Writes {@code sections} sections under {@code dir}; returns the number of files. */
+  public static int write(Path dir, int sections, long seed) throws IOException {
+    var rnd = new SplittableRandom(seed);
+    int files = 0;
+    for (int start = 0; start < sections; start += SECTIONS_PER_FILE, files++) {
+      String region = REGIONS[files % REGIONS.length];
+      Path file = dir.resolve(region.toLowerCase().replace(' ', '-')).resolve("sales-%05d.md".formatted(files));
+      Files.createDirectories(file.getParent());
+      try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+        for (int i = start; i < Math.min(start + SECTIONS_PER_FILE, sections); i++) section(w, region, i, rnd);
+      }
+    }
+    return files;
+  }
+
+  private static void section(BufferedWriter w, String region, int i, SplittableRandom rnd) throws IOException {
+    String product = PRODUCTS[rnd.nextInt(PRODUCTS.length)];
+    String kind = KINDS[rnd.nextInt(KINDS.length)];
+    int year = 2019 + rnd.nextInt(8);
+    w.write(String.format(Locale.ROOT, "# %s %s — %s FY%d Q%d (#%d)\n", product, kind, region, year, 1 + rnd.nextInt(4), i));
+    w.write(String.format(Locale.ROOT, "Revenue: %.1fB (YoY %+.1f%%)\n", 1 + rnd.nextDouble() * 80, rnd.nextDouble() * 30 - 10));
+    w.write(String.format(Locale.ROOT, "Units: %.1fM, ASP: %d USD\n", rnd.nextDouble() * 60, 99 + rnd.nextInt(1500)));
+    w.write(String.format(Locale.ROOT, "Gross margin: %.1f%%\n", 30 + rnd.nextDouble() * 45));
+    w.write(String.format(Locale.ROOT, "Notes: %s in %s; %s.\n\n",
+            NOTES[rnd.nextInt(NOTES.length)], region.toLowerCase(), NOTES[rnd.nextInt(NOTES.length)]));
+  }
+}
@@ -0,0 +1,22 @@
+package com.apple.salesassistant.chat.kb;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cold {@link InMemoryKb#load()}: resolve, stream, chunk and index the whole corpus. */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class KbLoadBenchmark {
+
+  @Benchmark
+  public KbSnapshot lexical(KbCorpus corpus) throws Exception {
+    var kb = new InMemoryKb(new DefaultResourceLoader(), corpus.env());
+    kb.load();
+    return kb.snapshot();
+  }
+}
@@ -0,0 +1,48 @@
+package com.apple.salesassistant.chat.kb;
+
+import com.apple.salesassistant.auth.dto.UserContext;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** ABAC checks: one {@link KbPolicy#canSee} call, and building a profile's whole visibility bitset. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class KbPolicyBenchmark {
+
+  private List<KbChunk> chunks;
+  private KbPolicy.AccessProfile analyst;
+  private UserContext guest;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void load(KbCorpus corpus) throws Exception {
+    var kb = new InMemoryKb(new DefaultResourceLoader(), corpus.env());
+    kb.load();
+    chunks = kb.all();
+    analyst = KbPolicy.AccessProfile.of(new UserContext("u2", "t1", Set.of("ROLE_ANALYST"), Set.of(), Set.of("apac")));
+    guest = new UserContext("guest", "t1", Set.of("ROLE_GUEST"), Set.of(), Set.of());
+  }
+
+  @Benchmark
+  public boolean canSeeProfile() {
+    return KbPolicy.canSee(analyst, chunks.get(next++ % chunks.size()));
+  }
+
+  @Benchmark
+  public boolean canSeeUserContext() {
+    return KbPolicy.canSee(guest, chunks.get(next++ % chunks.size()));
+  }
+
+  @Benchmark
+  public ChunkBitSet visibilityBitset() {
+    return ChunkBitSet.of(chunks.size(), i -> KbPolicy.canSee(analyst, chunks.get(i)));
+  }
+}
@@ -0,0 +1,49 @@
+package com.apple.salesassistant.chat.kb;
+
+import com.apple.salesassistant.auth.dto.UserContext;
+import com.apple.salesassistant.chat.llm.EmbeddingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** {@link KbRetriever#topK} per retrieval mode, uncached, rotating over typical sales questions. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class KbRetrieverBenchmark {
+
+  @Param({"lexical", "vector", "hybrid"})
+  public String mode;
+
+  private KbRetriever retriever;
+  private UserContext analyst;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void load(KbCorpus corpus) throws Exception {
+    var env = corpus.env("kb.retrieval-mode", mode, "kb.vector.index", "hnsw");
+    var embeddings = new EmbeddingService(null, env);
+    var kb = new InMemoryKb(new DefaultResourceLoader(), env, embeddings);
+    kb.load();
+    retriever = new KbRetriever(kb, List.of(new Bm25Scorer(env)), new VectorRetriever(kb, embeddings), env,
+            new SimpleMeterRegistry());
+    analyst = new UserContext("u2", "t1", Set.of("ROLE_ANALYST"), Set.of(), Set.of());
+  }
+
+  @TearDown(Level.Trial)
+  public void close() {
+    retriever.shutdown();
+  }
+
+  @Benchmark
+  public List<KbChunk> topK() {
+    return retriever.topK(KbCorpus.QUERIES[next++ % KbCorpus.QUERIES.length], analyst);
+  }
+}
@@ -0,0 +1,45 @@
+package com.apple.salesassistant.chat.service;
+
+import com.apple.salesassistant.auth.dto.UserContext;
+import com.apple.salesassistant.chat.kb.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** {@link ChatService} prompt assembly after retrieval: context packing plus prompt building. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class PromptAssemblyBenchmark {
+
+  private ContextPacker packer;
+  private final List<List<KbChunk>> retrieved = new ArrayList<>();
+  private int next;
+
+  @Setup(Level.Trial)
+  public void retrieve(KbCorpus corpus) throws Exception {
+    var env = corpus.env("kb.top-k", "8");
+    var kb = new InMemoryKb(new DefaultResourceLoader(), env);
+    kb.load();
+    var retriever = new KbRetriever(kb, List.of(new Bm25Scorer(env)), null, env, new SimpleMeterRegistry());
+    var analyst = new UserContext("u2", "t1", Set.of("ROLE_ANALYST"), Set.of(), Set.of());
+    for (String q : KbCorpus.QUERIES) retrieved.add(retriever.topK(q, analyst));
+    packer = new ContextPacker(env);
+  }
+
+  @Benchmark
+  public ChatService.Prompt buildPrompt() {
+    int i = next++ % retrieved.size();
+    String question = KbCorpus.QUERIES[i];
+    var packed = packer.pack(question, retrieved.get(i), packer.budget("default"));
+    return ChatService.buildPrompt("ROLE=ANALYST", packed, question);
+  }
+}
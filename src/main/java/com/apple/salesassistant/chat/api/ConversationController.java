@@ -4,13 +4,17 @@ import com.apple.salesassistant.chat.dto.ConversationResult;
 import com.apple.salesassistant.chat.service.ConversationService;
 import jakarta.validation.constraints.Size;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.net.URI;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/v1")
@@ -40,6 +44,40 @@ public class ConversationController {
         return ResponseEntity.ok(conversationResult);
     }
 
+    /** Same endpoint with {@code Accept: text/event-stream}; the assistant message is stored when the stream completes. */
+    @PostMapping(value = "/conversations/{conversationId}/messages", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("hasAnyRole('ANALYST','ADMIN')")
+    public SseEmitter streamMessageToConversation(
+            @PathVariable UUID conversationId,
+            @RequestBody AddMessageRequest req) {
+        return conversationService.streamMessageToConversation(conversationId, req.message());
+    }
+
+    /**
+     * Same endpoint with {@code Prefer: respond-async}: 202 with a job id right away, the answer is produced by a
+     * worker; poll {@code GET /v1/jobs/{jobId}}. Without {@code chat.jobs.enabled} the preference is ignored.
+     */
+    @PostMapping(value = "/conversations/{conversationId}/messages", headers = "Prefer=respond-async")
+    @PreAuthorize("hasAnyRole('ANALYST','ADMIN')")
+    public ResponseEntity<?> enqueueMessageToConversation(
+            @PathVariable UUID conversationId,
+            @RequestBody AddMessageRequest req) {
+        if (!conversationService.asyncEnabled()) return addMessageToConversation(conversationId, req);
+        String jobId = conversationService.enqueueMessageToConversation(conversationId, req.message());
+        return ResponseEntity.accepted()
+                .location(URI.create("/v1/jobs/" + jobId))
+                .body(Map.of("jobId", jobId, "status", "queued"));
+    }
+
+    /** Long poll: answers once the job finished or after {@code wait} seconds (at most 30), whichever is first. */
+    @GetMapping("/jobs/{jobId}")
+    @PreAuthorize("hasAnyRole('ANALYST','ADMIN')")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getJob(
+            @PathVariable String jobId,
+            @RequestParam(defaultValue = "0") long wait) {
+        return conversationService.awaitJob(jobId, Math.clamp(wait, 0, 30) * 1000).thenApply(ResponseEntity::ok);
+    }
+
     @GetMapping("/conversations/{conversationId}")
     @PreAuthorize("hasAnyRole('ANALYST','ADMIN')")
     public ResponseEntity<Map<String, Object>> listConversations(@PathVariable UUID conversationId) {
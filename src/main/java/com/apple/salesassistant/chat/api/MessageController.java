@@ -4,12 +4,14 @@ import com.apple.salesassistant.chat.dto.ConversationResult;
 import com.apple.salesassistant.chat.service.MessageService;
 import lombok.AllArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequestMapping("/v1")
@@ -25,4 +27,10 @@ public class MessageController {
         return ResponseEntity.ok(conversation);
 
     }
+
+    /** Same endpoint with {@code Accept: text/event-stream}: the answer arrives as it is generated. */
+    @PostMapping(value = "/messages:complete", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamMessage(@RequestBody ConversationController.AddMessageRequest req) {
+        return messageService.streamReply(req.message());
+    }
 }
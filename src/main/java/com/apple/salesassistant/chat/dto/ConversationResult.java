@@ -2,7 +2,16 @@ package com.apple.salesassistant.chat.dto;
 
 import java.time.Instant;
 
+/**
+ * @param contextTokens estimated tokens of KB context packed into the prompt; null when the answer was replayed
+ */
 public record ConversationResult(
-        String conversationId, String answer, String idempotencyKey, long latency, String roleBanner, Instant createdAt
+        String conversationId, String answer, String idempotencyKey, long latency, String roleBanner, Instant createdAt,
+        Integer contextTokens
+    ) {
 
-    ) {}
\ No newline at end of file
+    public ConversationResult(String conversationId, String answer, String idempotencyKey, long latency,
+                              String roleBanner, Instant createdAt) {
+        this(conversationId, answer, idempotencyKey, latency, roleBanner, createdAt, null);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.apple.salesassistant.chat.kb;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * BM25F: per-field length-normalized term frequencies are combined with field weights
+ * before saturation, then scaled by the term's IDF. Document frequencies and field lengths
+ * come from the {@link KbIndex} built at load time.
+ */
+@Component
+public class Bm25Scorer implements KbScorer {
+
+  private final double k1;
+  private final double b;
+  private final double titleWeight;
+  private final double bodyWeight;
+
+  public Bm25Scorer(org.springframework.core.env.Environment env) {
+    this.k1 = Double.parseDouble(env.getProperty("kb.bm25.k1", "1.2"));
+    this.b = Double.parseDouble(env.getProperty("kb.bm25.b", "0.75"));
+    this.titleWeight = Double.parseDouble(env.getProperty("kb.bm25.title-weight", "3.0"));
+    this.bodyWeight = Double.parseDouble(env.getProperty("kb.bm25.body-weight", "1.0"));
+  }
+
+  @Override
+  public double score(KbIndex index, KbIndex.Postings p, int i) {
+    int ord = p.docs()[i];
+    double tf = titleWeight * p.titleFreq()[i] / norm(index.titleLength(ord), index.avgTitleLength())
+              + bodyWeight * p.bodyFreq()[i] / norm(index.bodyLength(ord), index.avgBodyLength());
+    return idf(index.size(), p.size()) * tf * (k1 + 1) / (k1 + tf);
+  }
+
+  private double norm(int length, double avgLength) {
+    return avgLength > 0 ? 1 - b + b * length / avgLength : 1;
+  }
+
+  private static double idf(int n, int df) {
+    return Math.log(1 + (n - df + 0.5) / (df + 0.5));
+  }
+
+  @Override
+  public String key() {
+    return "bm25";
+  }
+}
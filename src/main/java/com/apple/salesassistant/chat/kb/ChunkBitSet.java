@@ -0,0 +1,36 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.util.function.IntPredicate;
+
+/** Immutable bitset over chunk ordinals, one bit per chunk packed into 64-bit words. */
+public final class ChunkBitSet {
+
+  private final long[] words;
+  private final int size;
+
+  private ChunkBitSet(long[] words, int size) {
+    this.words = words;
+    this.size = size;
+  }
+
+  /** Sets bit {@code ord} for every ordinal in [0, size) matching {@code test}. */
+  public static ChunkBitSet of(int size, IntPredicate test) {
+    long[] words = new long[(size + 63) >>> 6];
+    for (int ord = 0; ord < size; ord++) {
+      if (test.test(ord)) words[ord >>> 6] |= 1L << ord;
+    }
+    return new ChunkBitSet(words, size);
+  }
+
+  public boolean get(int ord) {
+    return (words[ord >>> 6] & (1L << ord)) != 0;
+  }
+
+  public int cardinality() {
+    int n = 0;
+    for (long w : words) n += Long.bitCount(w);
+    return n;
+  }
+
+  public int size() { return size; }
+}
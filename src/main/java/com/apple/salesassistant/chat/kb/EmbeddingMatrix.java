@@ -0,0 +1,114 @@
+package com.apple.salesassistant.chat.kb;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Chunk embeddings as one contiguous off-heap float matrix (row = chunk ordinal), L2-normalized so
+ * cosine similarity is a dot product. Rows are scored with the Vector API when available.
+ */
+@Slf4j
+public final class EmbeddingMatrix {
+
+  private static volatile boolean simdUnavailable;
+
+  private final ByteBuffer data;
+  private final int rows;
+  private final int dim;
+  private final RowDot dot;
+
+  private EmbeddingMatrix(ByteBuffer data, int rows, int dim) {
+    this.data = data;
+    this.rows = rows;
+    this.dim = dim;
+    this.dot = bind(data, dim);
+  }
+
+  /** Builds the matrix from one vector per row; rows are normalized on the way in. */
+  public static EmbeddingMatrix build(int rows, IntFunction<float[]> vector) {
+    if (rows == 0) return new EmbeddingMatrix(ByteBuffer.allocateDirect(0).order(ByteOrder.nativeOrder()), 0, 0);
+    float[] first = vector.apply(0);
+    int dim = first.length;
+    ByteBuffer data = ByteBuffer.allocateDirect(Math.multiplyExact(Math.multiplyExact(rows, dim), Float.BYTES))
+            .order(ByteOrder.nativeOrder());
+    for (int r = 0; r < rows; r++) {
+      float[] v = r == 0 ? first : vector.apply(r);
+      if (v.length != dim) throw new IllegalStateException("Embedding dimension changed: %d vs %d".formatted(v.length, dim));
+      data.asFloatBuffer().put(r * dim, normalize(v));
+    }
+    return new EmbeddingMatrix(data, rows, dim);
+  }
+
+  /** Embeds {@code chunks}, reusing rows of {@code previous} for chunk IDs it already holds. */
+  static EmbeddingMatrix build(List<KbChunk> chunks, Function<KbChunk, float[]> embed,
+                               List<KbChunk> previousChunks, EmbeddingMatrix previous) {
+    Map<UUID, Integer> reusable = new HashMap<>();
+    if (previous != null) {
+      for (int ord = 0; ord < previousChunks.size(); ord++) reusable.put(previousChunks.get(ord).chunkId(), ord);
+    }
+    return build(chunks.size(), ord -> {
+      KbChunk c = chunks.get(ord);
+      Integer old = reusable.get(c.chunkId());
+      return old != null ? previous.row(old) : embed.apply(c);
+    });
+  }
+
+  public int rows() { return rows; }
+
+  public int dim() { return dim; }
+
+  public float[] row(int r) {
+    float[] out = new float[dim];
+    data.asFloatBuffer().get(r * dim, out);
+    return out;
+  }
+
+  /** Cosine similarity of row {@code r} with a normalized query. */
+  public float dot(int r, float[] q) {
+    if (q.length != dim) throw new IllegalArgumentException("Query dimension %d, index dimension %d".formatted(q.length, dim));
+    return dot.dot(r, q);
+  }
+
+  /** Cosine similarity of two rows. */
+  public float dot(int a, int b) {
+    return dot.dot(a, b);
+  }
+
+  public static float[] normalize(float[] v) {
+    double norm = 0;
+    for (float x : v) norm += x * x;
+    if (norm == 0) return v.clone();
+    float inv = (float) (1 / Math.sqrt(norm));
+    float[] out = new float[v.length];
+    for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+    return out;
+  }
+
+  private static RowDot bind(ByteBuffer data, int dim) {
+    if (!simdUnavailable) {
+      try {
+        return simd(data, dim);
+      } catch (LinkageError | ReflectiveOperationException e) {
+        simdUnavailable = true;
+        log.warn("Vector API unavailable (%s); run with --enable-preview --add-modules jdk.incubator.vector for SIMD scoring"
+                .formatted(e.getMessage()));
+      }
+    }
+    return new ScalarRowDot(data, dim);
+  }
+
+  /** The SIMD kernel, compiled apart from this source set (src/simd) so only it needs the Vector API flags. */
+  static RowDot simd(ByteBuffer data, int dim) throws ReflectiveOperationException {
+    return (RowDot) Class.forName("com.apple.salesassistant.chat.kb.SimdRowDot")
+        .getDeclaredConstructor(ByteBuffer.class, int.class)
+        .newInstance(data, dim);
+  }
+}
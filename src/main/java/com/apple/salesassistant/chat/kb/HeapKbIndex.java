@@ -0,0 +1,113 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.util.*;
+
+/** {@link KbIndex} held on the heap, built from parsed chunks: a term dictionary plus postings by term ID. */
+final class HeapKbIndex implements KbIndex {
+
+  private final TermDictionary dictionary;
+  private final Postings[] postings;
+  private final int[] titleLength;
+  private final int[] bodyLength;
+  private final double avgTitleLength;
+  private final double avgBodyLength;
+
+  private HeapKbIndex(TermDictionary dictionary, Postings[] postings, int[] titleLength, int[] bodyLength) {
+    this.dictionary = dictionary;
+    this.postings = postings;
+    this.titleLength = titleLength;
+    this.bodyLength = bodyLength;
+    this.avgTitleLength = average(titleLength);
+    this.avgBodyLength = average(bodyLength);
+  }
+
+  static HeapKbIndex build(List<KbChunk> chunks) {
+    TermDictionary dictionary = new TermDictionary();
+    List<PostingsBuilder> acc = new ArrayList<>();
+    int[] titleLength = new int[chunks.size()];
+    int[] bodyLength = new int[chunks.size()];
+    for (int ord = 0; ord < chunks.size(); ord++) {
+      KbChunk c = chunks.get(ord);
+      titleLength[ord] = add(dictionary, acc, c.title(), ord, true);
+      bodyLength[ord] = add(dictionary, acc, c.text(), ord, false);
+    }
+    Postings[] postings = new Postings[acc.size()];
+    for (int id = 0; id < postings.length; id++) postings[id] = acc.get(id).build();
+    return new HeapKbIndex(dictionary, postings, titleLength, bodyLength);
+  }
+
+  /** Adds one field's term occurrences to the postings; returns the field length in terms. */
+  private static int add(TermDictionary dictionary, List<PostingsBuilder> acc, String text, int ord, boolean title) {
+    int[] length = {0};
+    KbTokenizer.scan(text, (buf, len) -> {
+      int id = dictionary.intern(buf, len);
+      if (id == acc.size()) acc.add(new PostingsBuilder());
+      acc.get(id).add(ord, title);
+      length[0]++;
+    });
+    return length[0];
+  }
+
+  @Override
+  public int termId(char[] buf, int len) {
+    return dictionary.id(buf, len);
+  }
+
+  @Override
+  public Postings postings(int termId) {
+    return postings[termId];
+  }
+
+  /** Term text by ID, for writing the index out. */
+  String term(int termId) {
+    return dictionary.term(termId);
+  }
+
+  @Override
+  public int size() { return titleLength.length; }
+
+  @Override
+  public int terms() { return postings.length; }
+
+  @Override
+  public int titleLength(int ord) { return titleLength[ord]; }
+
+  @Override
+  public int bodyLength(int ord) { return bodyLength[ord]; }
+
+  @Override
+  public double avgTitleLength() { return avgTitleLength; }
+
+  @Override
+  public double avgBodyLength() { return avgBodyLength; }
+
+  private static double average(int[] lengths) {
+    if (lengths.length == 0) return 0;
+    long sum = 0;
+    for (int l : lengths) sum += l;
+    return (double) sum / lengths.length;
+  }
+
+  private static final class PostingsBuilder {
+    private int[] docs = new int[4];
+    private int[] titleFreq = new int[4];
+    private int[] bodyFreq = new int[4];
+    private int n;
+
+    void add(int ord, boolean title) {
+      if (n == 0 || docs[n - 1] != ord) {
+        if (n == docs.length) {
+          docs = Arrays.copyOf(docs, n * 2);
+          titleFreq = Arrays.copyOf(titleFreq, n * 2);
+          bodyFreq = Arrays.copyOf(bodyFreq, n * 2);
+        }
+        docs[n++] = ord;
+      }
+      if (title) titleFreq[n - 1]++; else bodyFreq[n - 1]++;
+    }
+
+    Postings build() {
+      return new Postings(Arrays.copyOf(docs, n), Arrays.copyOf(titleFreq, n), Arrays.copyOf(bodyFreq, n));
+    }
+  }
+}
@@ -0,0 +1,307 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+/**
+ * Hierarchical navigable small-world graph (Malkov &amp; Yashunin) over the rows of an {@link EmbeddingMatrix},
+ * for approximate nearest-neighbour search in roughly logarithmic time.
+ * <p>
+ * Built once per snapshot, inserting nodes in parallel on the common fork-join pool; per-node locks guard
+ * neighbour lists during the build, after which the graph is read-only and searched without locks.
+ * Search takes the caller's visibility bitset: hidden chunks are still traversed as stepping stones but
+ * never enter the result set, so filtering happens during traversal instead of after it.
+ */
+public final class HnswIndex {
+
+  /**
+   * @param m              max neighbours per node on upper layers (2m on layer 0)
+   * @param efConstruction candidate list size while building
+   * @param efSearch       candidate list size while searching (raised to k if smaller)
+   */
+  public record Params(int m, int efConstruction, int efSearch) {}
+
+  private final EmbeddingMatrix vectors;
+  private final int m;
+  private final int maxM0;
+  private final int efConstruction;
+  private final int[] levels;
+  private final int[][][] links;          // [node][level] -> neighbour ordinals
+  private final ReentrantLock[] locks;
+  private final ReentrantLock entryLock = new ReentrantLock();
+  private volatile boolean building = true;
+  private int entryPoint = -1;
+  private int maxLevel = -1;
+
+  private HnswIndex(EmbeddingMatrix vectors, Params params) {
+    this.vectors = vectors;
+    this.m = params.m();
+    this.maxM0 = 2 * params.m();
+    this.efConstruction = params.efConstruction();
+    int n = vectors.rows();
+    this.levels = new int[n];
+    this.links = new int[n][][];
+    this.locks = new ReentrantLock[n];
+    double ml = 1 / Math.log(Math.max(m, 2));
+    Random rnd = new Random(42);
+    for (int i = 0; i < n; i++) {
+      levels[i] = (int) (-Math.log(1 - rnd.nextDouble()) * ml);
+      links[i] = new int[levels[i] + 1][0];
+      locks[i] = new ReentrantLock();
+    }
+  }
+
+  public static HnswIndex build(EmbeddingMatrix vectors, Params params) {
+    HnswIndex index = new HnswIndex(vectors, params);
+    if (vectors.rows() > 0) {
+      index.insert(0);
+      IntStream.range(1, vectors.rows()).parallel().forEach(index::insert);
+    }
+    index.building = false;
+    return index;
+  }
+
+  public int size() { return levels.length; }
+
+  public int maxLevel() { return maxLevel; }
+
+  /**
+   * Offers up to {@code ef} approximate nearest visible rows to {@code out}.
+   * @param q normalized query vector
+   */
+  public void search(float[] q, ChunkBitSet visible, int ef, KbTopK out) {
+    int ep = entryPoint;
+    if (ep < 0) return;
+    for (int l = maxLevel; l > 0; l--) ep = greedy(q, ep, l);
+    NodeHeap results = searchLayer(q, ep, ef, 0, visible);
+    while (results.size() > 0) {
+      float s = results.peekScore();
+      out.offer(results.pop(), s);
+    }
+  }
+
+  private void insert(int node) {
+    int level = levels[node];
+    int ep, top;
+    entryLock.lock();
+    try {
+      if (entryPoint < 0) {
+        entryPoint = node;
+        maxLevel = level;
+        return;
+      }
+      ep = entryPoint;
+      top = maxLevel;
+    } finally {
+      entryLock.unlock();
+    }
+
+    float[] q = vectors.row(node);
+    for (int l = top; l > level; l--) ep = greedy(q, ep, l);
+    for (int l = Math.min(level, top); l >= 0; l--) {
+      NodeHeap found = searchLayer(q, ep, efConstruction, l, null);
+      int[] ids = new int[found.size()];
+      float[] scores = new float[found.size()];
+      for (int i = ids.length - 1; i >= 0; i--) {   // min-heap drains worst first
+        scores[i] = found.peekScore();
+        ids[i] = found.pop();
+      }
+      int[] selected = select(ids, scores, l == 0 ? maxM0 : m);
+      setLinks(node, l, selected);
+      for (int n : selected) connect(n, node, l);
+      ep = ids[0];
+    }
+
+    if (level > top) {
+      entryLock.lock();
+      try {
+        if (level > maxLevel) {
+          maxLevel = level;
+          entryPoint = node;
+        }
+      } finally {
+        entryLock.unlock();
+      }
+    }
+  }
+
+  /** Adds {@code node} to {@code n}'s neighbours, re-pruning with the selection heuristic when full. */
+  private void connect(int n, int node, int level) {
+    int max = level == 0 ? maxM0 : m;
+    locks[n].lock();
+    try {
+      int[] cur = links[n][level];
+      if (cur.length < max) {
+        int[] next = Arrays.copyOf(cur, cur.length + 1);
+        next[cur.length] = node;
+        links[n][level] = next;
+        return;
+      }
+      int[] ids = Arrays.copyOf(cur, cur.length + 1);
+      ids[cur.length] = node;
+      float[] scores = new float[ids.length];
+      for (int i = 0; i < ids.length; i++) scores[i] = vectors.dot(n, ids[i]);
+      sortByScoreDesc(ids, scores);
+      links[n][level] = select(ids, scores, max);
+    } finally {
+      locks[n].unlock();
+    }
+  }
+
+  /**
+   * Neighbour selection heuristic: walk candidates best-first and keep one only if it is closer to the
+   * base than to every neighbour already kept, which spreads links across clusters.
+   */
+  private int[] select(int[] ids, float[] scores, int max) {
+    int[] kept = new int[Math.min(max, ids.length)];
+    int n = 0;
+    for (int i = 0; i < ids.length && n < kept.length; i++) {
+      boolean diverse = true;
+      for (int j = 0; j < n && diverse; j++) diverse = vectors.dot(ids[i], kept[j]) <= scores[i];
+      if (diverse) kept[n++] = ids[i];
+    }
+    return Arrays.copyOf(kept, n);
+  }
+
+  private void setLinks(int node, int level, int[] neighbours) {
+    locks[node].lock();
+    try {
+      links[node][level] = neighbours;
+    } finally {
+      locks[node].unlock();
+    }
+  }
+
+  private int[] neighbours(int node, int level) {
+    if (!building) return links[node][level];
+    locks[node].lock();
+    try {
+      return links[node][level];
+    } finally {
+      locks[node].unlock();
+    }
+  }
+
+  private int greedy(float[] q, int ep, int level) {
+    float best = vectors.dot(ep, q);
+    boolean improved = true;
+    while (improved) {
+      improved = false;
+      for (int n : neighbours(ep, level)) {
+        float s = vectors.dot(n, q);
+        if (s > best) {
+          best = s;
+          ep = n;
+          improved = true;
+        }
+      }
+    }
+    return ep;
+  }
+
+  /** Best-first search of one layer; returns a min-heap of at most {@code ef} results accepted by {@code filter}. */
+  private NodeHeap searchLayer(float[] q, int ep, int ef, int level, ChunkBitSet filter) {
+    BitSet visited = new BitSet(levels.length);
+    NodeHeap candidates = new NodeHeap(ef * 2, true);
+    NodeHeap results = new NodeHeap(ef + 1, false);
+
+    float s = vectors.dot(ep, q);
+    visited.set(ep);
+    candidates.push(ep, s);
+    if (filter == null || filter.get(ep)) results.push(ep, s);
+
+    while (candidates.size() > 0) {
+      if (results.size() >= ef && candidates.peekScore() < results.peekScore()) break;
+      int c = candidates.pop();
+      for (int n : neighbours(c, level)) {
+        if (visited.get(n)) continue;
+        visited.set(n);
+        float ns = vectors.dot(n, q);
+        if (results.size() < ef || ns > results.peekScore()) {
+          candidates.push(n, ns);
+          if (filter == null || filter.get(n)) {
+            results.push(n, ns);
+            if (results.size() > ef) results.pop();
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  private static void sortByScoreDesc(int[] ids, float[] scores) {
+    for (int i = 1; i < ids.length; i++) {
+      int id = ids[i];
+      float s = scores[i];
+      int j = i - 1;
+      for (; j >= 0 && scores[j] < s; j--) {
+        ids[j + 1] = ids[j];
+        scores[j + 1] = scores[j];
+      }
+      ids[j + 1] = id;
+      scores[j + 1] = s;
+    }
+  }
+
+  /** Growable binary heap of (node, score); max-heap pops the best score, min-heap the worst. */
+  private static final class NodeHeap {
+    private int[] ids;
+    private float[] scores;
+    private int size;
+    private final boolean max;
+
+    NodeHeap(int capacity, boolean max) {
+      this.ids = new int[Math.max(capacity, 4)];
+      this.scores = new float[ids.length];
+      this.max = max;
+    }
+
+    int size() { return size; }
+
+    float peekScore() { return scores[0]; }
+
+    void push(int id, float score) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        scores = Arrays.copyOf(scores, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!above(score, scores[parent])) break;
+        ids[i] = ids[parent];
+        scores[i] = scores[parent];
+        i = parent;
+      }
+      ids[i] = id;
+      scores[i] = score;
+    }
+
+    int pop() {
+      int top = ids[0];
+      size--;
+      int id = ids[size];
+      float score = scores[size];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) break;
+        if (child + 1 < size && above(scores[child + 1], scores[child])) child++;
+        if (!above(scores[child], score)) break;
+        ids[i] = ids[child];
+        scores[i] = scores[child];
+        i = child;
+      }
+      ids[i] = id;
+      scores[i] = score;
+      return top;
+    }
+
+    private boolean above(float a, float b) {
+      return max ? a > b : a < b;
+    }
+  }
+}
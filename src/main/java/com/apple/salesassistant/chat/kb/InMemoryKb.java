@@ -1,130 +1,193 @@
 package com.apple.salesassistant.chat.kb;
 
+import com.apple.salesassistant.chat.llm.EmbeddingService;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.stereotype.Component;
 
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.regex.Pattern;
 
+/**
+ * Knowledge base served from an immutable {@link KbSnapshot}. Two formats ({@code kb.format}):
+ * <ul>
+ *   <li>{@code text} (default): read the documents under {@code kb.path} (a file, directory or glob; see
+ *       {@link KbDocuments}) and chunk them on the heap</li>
+ *   <li>{@code segment}: memory-map a segment produced by {@link KbSegmentCompiler} from {@code kb.segment-path};
+ *       chunks and postings are decoded lazily off-heap</li>
+ * </ul>
+ * Unless {@code kb.retrieval-mode} is {@code lexical}, chunks are also embedded at load into an off-heap
+ * {@link EmbeddingMatrix}; on reload only chunks with new IDs are re-embedded. With {@code kb.vector.index=hnsw}
+ * an {@link HnswIndex} is built over the matrix as part of the snapshot.
+ */
 @Slf4j
 @Component
 public class InMemoryKb {
 
   private final ResourceLoader loader;
+  private final String format;
   private final String path;
-  private final int chunkSize;
-  private List<KbChunk> chunks;
+  private final KbChunker chunker;
+  private final int maxVisibilityProfiles;
+  private final EmbeddingService embeddings;
+  private final HnswIndex.Params hnsw;
+  private volatile KbSnapshot snapshot;
 
   public InMemoryKb(ResourceLoader loader, org.springframework.core.env.Environment env) {
+    this(loader, env, null);
+  }
+
+  @Autowired
+  public InMemoryKb(ResourceLoader loader, org.springframework.core.env.Environment env, EmbeddingService embeddings) {
     this.loader = loader;
-    this.path = env.getProperty("kb.file-path", "classpath:kb/kb.txt");
-    this.chunkSize = Integer.parseInt(env.getProperty("kb.chunk-size", "700"));
+    this.embeddings = "lexical".equals(env.getProperty("kb.retrieval-mode", "lexical")) ? null : embeddings;
+    this.format = env.getProperty("kb.format", "text");
+    this.path = "segment".equals(format)
+            ? env.getProperty("kb.segment-path", "file:build/kb/kb.seg")
+            : env.getProperty("kb.path", env.getProperty("kb.file-path", "classpath:kb/kb.txt"));
+    this.chunker = new KbChunker(
+            Integer.parseInt(env.getProperty("kb.chunk.max-tokens", "180")),
+            Integer.parseInt(env.getProperty("kb.chunk.overlap-tokens", "20")));
+    this.maxVisibilityProfiles = Integer.parseInt(env.getProperty("kb.visibility-profiles", "1024"));
+    String vectorIndex = env.getProperty("kb.vector.index", "flat");
+    if (!vectorIndex.equals("flat") && !vectorIndex.equals("hnsw")) {
+      throw new IllegalArgumentException("Unknown kb.vector.index: " + vectorIndex);
+    }
+    this.hnsw = vectorIndex.equals("hnsw") ? new HnswIndex.Params(
+            Integer.parseInt(env.getProperty("kb.vector.hnsw.m", "16")),
+            Integer.parseInt(env.getProperty("kb.vector.hnsw.ef-construction", "200")),
+            Integer.parseInt(env.getProperty("kb.vector.hnsw.ef-search", "64"))) : null;
   }
 
   @PostConstruct
   public void load() throws Exception {
-    String all = readAll();
-    List<Section> sections = splitByHeadings(all);
-    List<KbChunk> out = new ArrayList<>();
-    int seq = 0;
-
-    for (Section s : sections) {
-      List<String> pieces = splitBySize(s.body(), chunkSize);
-      for (String piece : pieces) {
-        var minRole = inferMinRole(s.title());
-        var scope   = inferScope(s.title());
-        var tags    = inferTags(s.title(), piece);
-        out.add(new KbChunk(
-                UUID.nameUUIDFromBytes(("mem-" + (seq++)).getBytes(StandardCharsets.UTF_8)),
-                "kb.txt",
-                s.title(),
-                piece.trim(),
-                null,                // tenantId
-                scope,
-                minRole,
-                tags
-        ));
-      }
-    }
-    log.info("Loaded %d KB chunks from %s".formatted(out.size(), path));
-    this.chunks = List.copyOf(out);
+    reload();
   }
 
-  public List<KbChunk> all() { return chunks; }
-
-  private String readAll() throws Exception {
-    Resource r = loader.getResource(path);
-    if (!r.exists()) throw new IllegalStateException("KB not found: " + path);
-    try (var in = r.getInputStream()) {
-      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
-    }
+  /**
+   * Re-reads the KB and publishes it as one new snapshot. Requests holding the previous snapshot keep using it.
+   * In text mode only the sections whose content hash changed are re-chunked.
+   * @return false if the content is unchanged
+   */
+  public synchronized boolean reload() throws Exception {
+    KbSnapshot previous = snapshot;
+    long version = previous != null ? previous.version() + 1 : 1;
+    KbSnapshot next = "segment".equals(format) ? loadSegment(previous, version) : loadText(previous, version);
+    if (next == null) return false;
+    this.snapshot = next;
+    return true;
   }
 
-  private record Section(String title, String body) {}
-
-  private static List<Section> splitByHeadings(String text) {
-    List<Section> sections = new ArrayList<>();
-    String[] lines = text.split("\\R");
-    String currentTitle = "General";
-    StringBuilder buf = new StringBuilder();
-    Pattern heading = Pattern.compile("^\\s*#+\\s+(.+)$");
-
-    for (String line : lines) {
-      var m = heading.matcher(line);
-      if (m.find()) {
-        if (buf.length() > 0) {
-          sections.add(new Section(currentTitle, buf.toString().trim()));
-          buf.setLength(0);
-        }
-        currentTitle = m.group(1).trim();
-      } else {
-        buf.append(line).append('\n');
-      }
+  private KbSnapshot loadText(KbSnapshot previous, long version) throws Exception {
+    long t0 = System.currentTimeMillis();
+    List<KbDocuments.Document> docs = KbDocuments.resolve(loader, path);
+    if (previous != null && previous.fingerprint().equals(KbDocuments.fingerprint(docs))) return null;
+
+    // documents are streamed, split, chunked and tagged in parallel on the common fork-join pool;
+    // each worker holds one section at a time and results keep docId order
+    Map<String, List<KbChunk>> reusable = previous != null ? previous.sections() : Map.of();
+    List<Ingested> ingested = docs.parallelStream().map(d -> ingest(d, reusable)).toList();
+
+    Map<String, List<KbChunk>> sections = new LinkedHashMap<>();
+    List<KbChunk> out = new ArrayList<>();
+    int reused = 0;
+    for (Ingested doc : ingested) {
+      sections.putAll(doc.sections());
+      doc.sections().values().forEach(out::addAll);
+      reused += doc.reused();
     }
-    if (buf.length() > 0) sections.add(new Section(currentTitle, buf.toString().trim()));
-    return sections;
+
+    List<KbChunk> chunks = List.copyOf(out);
+    KbIndex index = KbIndex.build(chunks);
+    log.info("Loaded KB v%d: %d documents, %d chunks (%d terms) from %s in %d ms, %d/%d sections reused".formatted(
+            version, docs.size(), chunks.size(), index.terms(), path, System.currentTimeMillis() - t0,
+            reused, sections.size()));
+    // hashed from the bytes the chunker read, so it describes these chunks even if a file changed meanwhile
+    String fingerprint = KbDocuments.fingerprint(docs, ingested.stream().map(Ingested::digest).toList());
+    EmbeddingMatrix vectors = embed(chunks, previous);
+    return new KbSnapshot(version, fingerprint, chunks, index,
+            new KbVisibilityIndex(chunks, maxVisibilityProfiles), vectors, ann(vectors), Map.copyOf(sections));
   }
 
-  private static List<String> splitBySize(String body, int size) {
-    if (body.length() <= size) return List.of(body);
-    List<String> out = new ArrayList<>();
-    int i = 0;
-    while (i < body.length()) {
-      int end = Math.min(i + size, body.length());
-      int cut = body.lastIndexOf("\n\n", end);
-      if (cut <= i) cut = end;
-      out.add(body.substring(i, cut));
-      i = cut;
+  /**
+   * Sections of one document keyed {@code docId:sectionKey}, how many were taken from the previous snapshot,
+   * and the SHA-256 of the bytes they were read from.
+   */
+  private record Ingested(Map<String, List<KbChunk>> sections, int reused, byte[] digest) {}
+
+  private Ingested ingest(KbDocuments.Document doc, Map<String, List<KbChunk>> reusable) {
+    String docId = doc.docId();
+    Map<String, List<KbChunk>> sections = new LinkedHashMap<>();
+    Set<String> seen = new HashSet<>();
+    int[] reused = {0};
+    MessageDigest sha;
+    try {
+      sha = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
     }
-    return out;
+    try (Reader in = doc.reader(sha)) {
+      KbChunker.readSections(in, s -> {
+        String key = KbChunker.sectionKey(s, seen);
+        seen.add(key);
+        List<KbChunk> chunks = reusable.get(docId + ":" + key);
+        if (chunks != null) reused[0]++;
+        else chunks = chunker.chunk(s, docId, key);
+        sections.put(docId + ":" + key, chunks);
+      });
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read KB document " + docId, e);
+    }
+    return new Ingested(sections, reused[0], sha.digest());
   }
 
-  private static KbChunk.MinRole inferMinRole(String title) {
-    String t = title.toLowerCase();
-    if (t.contains("confidential") || t.contains("internal")) return KbChunk.MinRole.ADMIN;
-    if (t.contains("detail") || t.contains("sku") || t.contains("unit")) return KbChunk.MinRole.ANALYST;
-    return KbChunk.MinRole.GUEST;
+  private KbSnapshot loadSegment(KbSnapshot previous, long version) throws Exception {
+    Resource r = loader.getResource(path);
+    if (!r.isFile()) throw new IllegalStateException("KB segment must be a file: " + path);
+    KbSegment segment = KbSegment.open(r.getFile().toPath());
+    if (previous != null && previous.fingerprint().equals(segment.fingerprint())) return null;
+
+    List<KbChunk> chunks = segment.chunks();
+    KbIndex index = segment.index();
+    log.info("Mapped KB v%d: %d chunks (%d terms) from %s".formatted(version, chunks.size(), index.terms(), path));
+    EmbeddingMatrix vectors = embed(chunks, previous);
+    return new KbSnapshot(version, segment.fingerprint(), chunks, index,
+            new KbVisibilityIndex(chunks, maxVisibilityProfiles), vectors, ann(vectors), Map.of());
   }
 
-  private static KbChunk.AccessScope inferScope(String title) {
-    String t = title.toLowerCase();
-    if (t.contains("executive") || t.contains("summary")) return KbChunk.AccessScope.AGGREGATE;
-    if (t.contains("confidential")) return KbChunk.AccessScope.CONFIDENTIAL;
-    return KbChunk.AccessScope.DETAIL;
+  private EmbeddingMatrix embed(List<KbChunk> chunks, KbSnapshot previous) {
+    if (embeddings == null) return null;
+    long t0 = System.currentTimeMillis();
+    EmbeddingMatrix vectors = EmbeddingMatrix.build(chunks, c -> embeddings.embed(c.title() + "\n" + c.text()),
+            previous != null ? previous.chunks() : List.of(), previous != null ? previous.vectors() : null);
+    log.info("Embedded %d KB chunks (dim %d) with %s in %d ms".formatted(
+            vectors.rows(), vectors.dim(), embeddings.key(), System.currentTimeMillis() - t0));
+    return vectors;
   }
 
-  private static Set<String> inferTags(String title, String body) {
-    var tags = new HashSet<String>();
-    String s = (title + " " + body).toLowerCase();
-    if (s.contains("iphone")) tags.add("iphone");
-    if (s.contains("services")) tags.add("services");
-    if (s.contains("apac")) tags.add("apac");
-    if (s.contains("emea")) tags.add("emea");
-    if (s.contains("amer")) tags.add("amer");
-    return Set.copyOf(tags);
+  private HnswIndex ann(EmbeddingMatrix vectors) {
+    if (vectors == null || hnsw == null) return null;
+    long t0 = System.currentTimeMillis();
+    HnswIndex ann = HnswIndex.build(vectors, hnsw);
+    log.info("Built HNSW over %d vectors (M=%d, efConstruction=%d, %d levels) in %d ms".formatted(
+            ann.size(), hnsw.m(), hnsw.efConstruction(), ann.maxLevel() + 1, System.currentTimeMillis() - t0));
+    return ann;
   }
+
+  /** HNSW parameters, or null when vector search is brute force. */
+  HnswIndex.Params hnsw() { return hnsw; }
+
+  /** Current snapshot; callers should read it once per request. */
+  public KbSnapshot snapshot() { return snapshot; }
+
+  public List<KbChunk> all() { return snapshot.chunks(); }
+
+  /** Location being served: the text path or the segment file, depending on {@code kb.format}. */
+  public String location() { return path; }
 }
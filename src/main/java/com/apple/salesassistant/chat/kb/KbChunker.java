@@ -0,0 +1,203 @@
+package com.apple.salesassistant.chat.kb;
+
+import com.apple.salesassistant.chat.llm.TokenEstimator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Turns KB documents into chunks: stream sections as markdown headings are read, cut each section into
+ * chunks of at most {@code maxTokens} estimated model tokens (see {@link TokenEstimator}) with
+ * {@code overlapTokens} carried over between neighbours, and infer role, scope and tags from the title.
+ * Only the current section is held in memory. Shared by {@link InMemoryKb} and the offline
+ * {@link KbSegmentCompiler} so both produce identical chunks.
+ */
+final class KbChunker {
+
+  private static final Pattern HEADING = Pattern.compile("^\\s*#+\\s+(.+)$");
+
+  private final int maxTokens;
+  private final int overlapTokens;
+
+  KbChunker(int maxTokens, int overlapTokens) {
+    if (maxTokens <= 0 || overlapTokens < 0 || overlapTokens * 2 > maxTokens) {
+      throw new IllegalArgumentException("Need 0 <= overlap <= max/2, got max=%d overlap=%d".formatted(maxTokens, overlapTokens));
+    }
+    this.maxTokens = maxTokens;
+    this.overlapTokens = overlapTokens;
+  }
+
+  /** Chunks a whole document as it is read. */
+  List<KbChunk> chunkAll(String docId, Reader in) throws IOException {
+    Set<String> seen = new HashSet<>();
+    List<KbChunk> out = new ArrayList<>();
+    readSections(in, s -> {
+      String key = sectionKey(s, seen);
+      seen.add(key);
+      out.addAll(chunk(s, docId, key));
+    });
+    return List.copyOf(out);
+  }
+
+  /** Chunk IDs derive from docId, section key and position, so they are stable across loads and machines. */
+  List<KbChunk> chunk(Section s, String docId, String key) {
+    List<KbChunk> out = new ArrayList<>();
+    List<String> pieces = splitByTokens(s.body());
+    for (int i = 0; i < pieces.size(); i++) {
+      String piece = pieces.get(i);
+      var minRole = inferMinRole(s.title());
+      var scope   = inferScope(s.title());
+      var tags    = inferTags(s.title(), piece);
+      out.add(new KbChunk(
+              UUID.nameUUIDFromBytes((docId + ":" + key + ":" + i).getBytes(StandardCharsets.UTF_8)),
+              docId,
+              s.title(),
+              piece.trim(),
+              null,                // tenantId
+              scope,
+              minRole,
+              tags
+      ));
+    }
+    return List.copyOf(out);
+  }
+
+  /** Content hash of the section, suffixed with its occurrence so repeated sections stay distinct. */
+  static String sectionKey(Section s, Set<String> seen) {
+    try {
+      var sha = MessageDigest.getInstance("SHA-256");
+      sha.update(s.title().getBytes(StandardCharsets.UTF_8));
+      sha.update((byte) '\n');
+      sha.update(s.body().getBytes(StandardCharsets.UTF_8));
+      String hash = HexFormat.of().formatHex(sha.digest());
+      int n = 0;
+      while (seen.contains(hash + "#" + n)) n++;
+      return hash + "#" + n;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  record Section(String title, String body) {}
+
+  /** Reads line by line and hands each section to {@code sink} as soon as the next heading (or EOF) ends it. */
+  static void readSections(Reader reader, Consumer<Section> sink) throws IOException {
+    BufferedReader in = reader instanceof BufferedReader b ? b : new BufferedReader(reader);
+    String currentTitle = "General";
+    StringBuilder buf = new StringBuilder();
+    String line;
+    while ((line = in.readLine()) != null) {
+      var m = HEADING.matcher(line);
+      if (m.find()) {
+        if (buf.length() > 0) {
+          sink.accept(new Section(currentTitle, buf.toString().trim()));
+          buf.setLength(0);
+        }
+        currentTitle = m.group(1).trim();
+      } else {
+        buf.append(line).append('\n');
+      }
+    }
+    if (buf.length() > 0) sink.accept(new Section(currentTitle, buf.toString().trim()));
+  }
+
+  /** A unit of text and the separator that joins it to the unit before it. */
+  private record Piece(String sep, String text, int tokens) {}
+
+  /**
+   * Greedily packs paragraphs into chunks of at most {@code maxTokens}. Paragraphs that do not fit are split
+   * by lines, then words, then characters. Every chunk after the first starts with the trailing
+   * {@code overlapTokens} worth of words of the previous one, so facts on a boundary appear whole in one of them.
+   */
+  List<String> splitByTokens(String body) {
+    if (TokenEstimator.estimate(body) <= maxTokens) return List.of(body);
+    List<Piece> pieces = new ArrayList<>();
+    for (String para : body.split("\\n\\s*\\n")) split(pieces, "\n\n", para.trim(), 0);
+
+    List<String> out = new ArrayList<>();
+    StringBuilder cur = new StringBuilder();
+    int tokens = 0;
+    for (Piece p : pieces) {
+      if (tokens > 0 && tokens + p.tokens() > maxTokens) {
+        String done = cur.toString();
+        out.add(done);
+        cur.setLength(0);
+        cur.append(tail(done));
+        tokens = TokenEstimator.estimate(cur);
+      }
+      if (cur.length() > 0) cur.append(p.sep());
+      cur.append(p.text());
+      tokens += p.tokens();
+    }
+    if (!cur.isEmpty()) out.add(cur.toString());
+    return out;
+  }
+
+  private void split(List<Piece> out, String sep, String text, int level) {
+    if (text.isEmpty()) return;
+    int budget = maxTokens - overlapTokens;
+    int tokens = TokenEstimator.estimate(text);
+    if (tokens <= budget) {
+      out.add(new Piece(sep, text, tokens));
+      return;
+    }
+    if (level == 2) {   // one "word" longer than the budget, e.g. a table row without spaces
+      int step = budget * 4;
+      for (int i = 0; i < text.length(); i += step) {
+        String slice = text.substring(i, Math.min(i + step, text.length()));
+        out.add(new Piece(i == 0 ? sep : "", slice, TokenEstimator.estimate(slice)));
+      }
+      return;
+    }
+    String[] parts = text.split(level == 0 ? "\n" : " +");
+    String inner = level == 0 ? "\n" : " ";
+    for (int i = 0; i < parts.length; i++) split(out, i == 0 ? sep : inner, parts[i].trim(), level + 1);
+  }
+
+  /** Trailing whole words of {@code text} worth at most {@code overlapTokens}. */
+  private String tail(String text) {
+    if (overlapTokens == 0) return "";
+    int start = text.length();
+    while (true) {
+      int i = start;
+      while (i > 0 && Character.isWhitespace(text.charAt(i - 1))) i--;
+      while (i > 0 && !Character.isWhitespace(text.charAt(i - 1))) i--;
+      if (i == start || TokenEstimator.estimate(text.substring(i)) > overlapTokens) break;
+      start = i;
+      if (i == 0) break;
+    }
+    return text.substring(start).trim();
+  }
+
+  private static KbChunk.MinRole inferMinRole(String title) {
+    String t = title.toLowerCase();
+    if (t.contains("confidential") || t.contains("internal")) return KbChunk.MinRole.ADMIN;
+    if (t.contains("detail") || t.contains("sku") || t.contains("unit")) return KbChunk.MinRole.ANALYST;
+    return KbChunk.MinRole.GUEST;
+  }
+
+  private static KbChunk.AccessScope inferScope(String title) {
+    String t = title.toLowerCase();
+    if (t.contains("executive") || t.contains("summary")) return KbChunk.AccessScope.AGGREGATE;
+    if (t.contains("confidential")) return KbChunk.AccessScope.CONFIDENTIAL;
+    return KbChunk.AccessScope.DETAIL;
+  }
+
+  private static Set<String> inferTags(String title, String body) {
+    var tags = new HashSet<String>();
+    String s = (title + " " + body).toLowerCase();
+    if (s.contains("iphone")) tags.add("iphone");
+    if (s.contains("services")) tags.add("services");
+    if (s.contains("apac")) tags.add("apac");
+    if (s.contains("emea")) tags.add("emea");
+    if (s.contains("amer")) tags.add("amer");
+    return Set.copyOf(tags);
+  }
+}
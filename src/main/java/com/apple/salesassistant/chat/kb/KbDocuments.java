@@ -0,0 +1,131 @@
+package com.apple.salesassistant.chat.kb;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves {@code kb.path} to the KB's source documents. The path may be a single file, a directory (read
+ * recursively) or an Ant-style glob such as {@code file:/data/kb/**&#47;*.md}. The docId of each document is
+ * its path relative to the directory (or the glob's fixed prefix), or the file name for a single file.
+ * Documents come back sorted by docId so chunk ordinals do not depend on file-system listing order.
+ */
+final class KbDocuments {
+  private KbDocuments() {}
+
+  record Document(String docId, Resource resource) {
+    String read() {
+      try (var in = resource.getInputStream()) {
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot read KB document " + docId, e);
+      }
+    }
+
+    Reader reader() throws IOException {
+      return new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /** Like {@link #reader()}, also passing every byte read through {@code sha}. */
+    Reader reader(MessageDigest sha) throws IOException {
+      return new BufferedReader(new InputStreamReader(
+          new DigestInputStream(resource.getInputStream(), sha), StandardCharsets.UTF_8));
+    }
+
+    /** SHA-256 of the raw bytes, streamed through a fixed buffer. */
+    byte[] digest() {
+      try (var in = resource.getInputStream()) {
+        var sha = MessageDigest.getInstance("SHA-256");
+        byte[] buf = new byte[8192];
+        for (int n; (n = in.read(buf)) > 0; ) sha.update(buf, 0, n);
+        return sha.digest();
+      } catch (IOException | NoSuchAlgorithmException e) {
+        throw new IllegalStateException("Cannot read KB document " + docId, e);
+      }
+    }
+  }
+
+  static boolean isPattern(String location) {
+    return location.indexOf('*') >= 0 || location.indexOf('?') >= 0;
+  }
+
+  static List<Document> resolve(ResourceLoader loader, String location) throws IOException {
+    String base, pattern;
+    if (isPattern(location)) {
+      int wildcard = Math.min(indexOrMax(location, '*'), indexOrMax(location, '?'));
+      base = location.substring(0, location.lastIndexOf('/', wildcard) + 1);
+      pattern = location;
+    } else {
+      Resource r = loader.getResource(location);
+      if (!r.exists()) throw new IllegalStateException("KB not found: " + location);
+      if (!isDirectory(r)) return List.of(new Document(r.getFilename(), r));
+      base = location.endsWith("/") ? location : location + "/";
+      pattern = base + "**/*";
+    }
+
+    URI baseUri = loader.getResource(base).getURI();
+    Map<String, Document> docs = new TreeMap<>();
+    for (Resource r : ResourcePatternUtils.getResourcePatternResolver(loader).getResources(pattern)) {
+      String name = r.getFilename();
+      if (name == null || name.isEmpty() || name.startsWith(".") || !r.isReadable() || isDirectory(r)) continue;
+      String rel = baseUri.relativize(r.getURI()).getPath();
+      String docId = rel == null || rel.isEmpty() || rel.startsWith("/") ? name : rel;
+      docs.putIfAbsent(docId, new Document(docId, r));
+    }
+    if (docs.isEmpty()) throw new IllegalStateException("No KB documents match " + location);
+    return List.copyOf(docs.values());
+  }
+
+  /**
+   * SHA-256 over every (docId, content digest) pair in order; changes if any document is added, removed,
+   * renamed or edited. Documents are hashed in parallel without being held in memory.
+   */
+  static String fingerprint(List<Document> docs) {
+    return fingerprint(docs, docs.parallelStream().map(Document::digest).toList());
+  }
+
+  /** Same, from per-document SHA-256 digests already taken (e.g. while the documents were chunked). */
+  static String fingerprint(List<Document> docs, List<byte[]> digests) {
+    try {
+      var sha = MessageDigest.getInstance("SHA-256");
+      for (int i = 0; i < docs.size(); i++) {
+        sha.update(docs.get(i).docId().getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(digests.get(i));
+      }
+      return HexFormat.of().formatHex(sha.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** All documents concatenated; only for callers that really need the full text. */
+  static String readAll(List<Document> docs) {
+    return docs.stream().map(Document::read).collect(Collectors.joining("\n\n"));
+  }
+
+  private static boolean isDirectory(Resource r) {
+    try {
+      return r.isFile() && r.getFile().isDirectory();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static int indexOrMax(String s, char c) {
+    int i = s.indexOf(c);
+    return i < 0 ? Integer.MAX_VALUE : i;
+  }
+}
@@ -0,0 +1,120 @@
+package com.apple.salesassistant.chat.kb;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the KB file (or, for a directory {@code kb.path}, any file in its tree) and triggers
+ * {@link InMemoryKb#reload()} on a background thread when it changes, so updates need no restart.
+ * Enabled with {@code kb.reload.enabled=true}; only file-backed, non-glob locations can be watched
+ * (not resources packed inside the jar). The watch service only reports a directory's direct entries, so every
+ * subdirectory is registered at start and each new one as it is created.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "kb.reload.enabled", havingValue = "true")
+public class KbFileWatcher {
+
+  private final InMemoryKb kb;
+  private final ResourceLoader loader;
+  private final long debounceMs;
+  private WatchService watchService;
+  private Thread thread;
+
+  public KbFileWatcher(InMemoryKb kb, ResourceLoader loader, org.springframework.core.env.Environment env) {
+    this.kb = kb;
+    this.loader = loader;
+    this.debounceMs = Long.parseLong(env.getProperty("kb.reload.debounce-ms", "500"));
+  }
+
+  @PostConstruct
+  public void start() throws Exception {
+    Resource r = loader.getResource(kb.location());
+    if (KbDocuments.isPattern(kb.location()) || !r.isFile()) {
+      log.warn("KB hot reload disabled: %s is not a file or directory".formatted(kb.location()));
+      return;
+    }
+    Path file = r.getFile().toPath().toAbsolutePath();
+    boolean directory = Files.isDirectory(file);
+    watchService = file.getFileSystem().newWatchService();
+    if (directory) registerTree(file);
+    else file.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    thread = Thread.ofPlatform().daemon().name("kb-watcher").start(() -> watch(file, directory));
+    log.info("Watching %s for KB changes".formatted(file));
+  }
+
+  private void watch(Path file, boolean directory) {
+    try {
+      while (true) {
+        if (!changed(watchService.take(), file, directory)) continue;
+
+        // editors write in several steps; let them settle, then drain the queued events
+        Thread.sleep(debounceMs);
+        WatchKey pending;
+        while ((pending = watchService.poll()) != null) changed(pending, file, directory);
+        try {
+          kb.reload();
+        } catch (Exception e) {
+          log.error("KB reload failed, keeping v%d: %s".formatted(kb.snapshot().version(), e.getMessage()), e);
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // shutting down
+    }
+  }
+
+  /** Drains the key's events and resets it; in directory mode new subdirectories are registered on the way. */
+  private boolean changed(WatchKey key, Path file, boolean directory) {
+    boolean changed = false;
+    for (WatchEvent<?> e : key.pollEvents()) {
+      if (directory) {
+        changed = true;
+        Path created = e.kind() == ENTRY_CREATE ? ((Path) key.watchable()).resolve((Path) e.context()) : null;
+        // after an overflow events may be lost, new directories included: walk the whole tree again
+        Path root = e.kind() == OVERFLOW ? file : created != null && Files.isDirectory(created) ? created : null;
+        if (root != null) {
+          try {
+            registerTree(root);
+          } catch (IOException ex) {
+            log.warn("Cannot watch %s for KB changes: %s".formatted(root, ex.getMessage()));
+          }
+        }
+      } else {
+        changed |= e.kind() == OVERFLOW || file.getFileName().equals(e.context());
+      }
+    }
+    key.reset();
+    return changed;
+  }
+
+  /** Registers {@code root} and every directory below it; registering one already watched is a no-op. */
+  private void registerTree(Path root) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  @PreDestroy
+  public void stop() throws Exception {
+    if (thread != null) thread.interrupt();
+    if (watchService != null) watchService.close();
+  }
+}
@@ -0,0 +1,49 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.util.List;
+
+/**
+ * Inverted index over a chunk list. Maps each term to the ordinals (positions in the snapshot's chunk list)
+ * of the chunks containing it, with per-field frequencies, so a query only visits chunks that share a term with it.
+ * Terms are addressed by dense int IDs resolved straight from the tokenizer's buffer (see {@link KbTokenizer}).
+ * Field lengths are kept alongside so length-normalizing scorers need no per-query tokenization.
+ */
+public interface KbIndex {
+
+  /** Postings for one term; {@code docs} is ascending and the frequency arrays are parallel to it. */
+  record Postings(int[] docs, int[] titleFreq, int[] bodyFreq) {
+    public int size() { return docs.length; }
+  }
+
+  Postings EMPTY = new Postings(new int[0], new int[0], new int[0]);
+
+  /** Builds an on-heap index over parsed chunks. */
+  static KbIndex build(List<KbChunk> chunks) {
+    return HeapKbIndex.build(chunks);
+  }
+
+  /** ID of the lowercase term in {@code buf[0, len)}, or -1 if it is not indexed. IDs run from 0 to {@link #terms()}. */
+  int termId(char[] buf, int len);
+
+  Postings postings(int termId);
+
+  /** Convenience lookup by term string; the hot path uses {@link #termId} instead. */
+  default Postings postings(String term) {
+    int id = termId(term.toCharArray(), term.length());
+    return id < 0 ? EMPTY : postings(id);
+  }
+
+  /** Number of indexed chunks. */
+  int size();
+
+  /** Number of distinct terms. */
+  int terms();
+
+  int titleLength(int ord);
+
+  int bodyLength(int ord);
+
+  double avgTitleLength();
+
+  double avgBodyLength();
+}
@@ -3,24 +3,41 @@ package com.apple.salesassistant.chat.kb;
 
 import com.apple.salesassistant.auth.dto.UserContext;
 
+import java.util.Set;
+
 public final class KbPolicy {
   private KbPolicy() {}
 
+  /** The attributes of a user that ABAC decisions depend on; users sharing one see the same chunks. */
+  public record AccessProfile(int roleLevel, String tenantId, Set<String> allowedTags) {
+    public AccessProfile {
+      allowedTags = allowedTags == null ? Set.of() : Set.copyOf(allowedTags);
+    }
+
+    public static AccessProfile of(UserContext user) {
+      return new AccessProfile(user.roleLevel(), user.tenantId(), user.allowedTags());
+    }
+  }
+
   public static boolean canSee(UserContext user, KbChunk c) {
+    return canSee(AccessProfile.of(user), c);
+  }
+
+  public static boolean canSee(AccessProfile profile, KbChunk c) {
     // role threshold
     int need = switch (c.minRole()) {
       case ADMIN -> 3;
       case ANALYST -> 2;
       case GUEST -> 1;
     };
-    if (user.roleLevel() < need) return false;
+    if (profile.roleLevel() < need) return false;
 
     // tenant scoping
-    if (c.tenantId() != null && !c.tenantId().equals(user.tenantId())) return false;
+    if (c.tenantId() != null && !c.tenantId().equals(profile.tenantId())) return false;
 
     // optional tag scoping
-    if (user.allowedTags() != null && !user.allowedTags().isEmpty()) {
-      boolean any = c.tags().stream().anyMatch(user.allowedTags()::contains);
+    if (!profile.allowedTags().isEmpty()) {
+      boolean any = c.tags().stream().anyMatch(profile.allowedTags()::contains);
       if (!any) return false;
     }
     return true;
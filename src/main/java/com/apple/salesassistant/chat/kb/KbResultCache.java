@@ -0,0 +1,94 @@
+package com.apple.salesassistant.chat.kb;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of retrieval results in front of {@link KbRetriever}. The key is the query plus the caller's
+ * {@link KbPolicy.AccessProfile} and the snapshot version, so users who see different chunks never share an
+ * entry and results from an older snapshot are never served. With {@code byTerms} (lexical retrieval, which only
+ * sees the terms) the query is keyed by its normalized term set (sorted, lowercase, stop words dropped), so
+ * "APAC iPhone revenue" and "iPhone revenue in APAC?" share an entry; otherwise the embedding sees the whole
+ * query, so it is keyed by its trimmed, lower-cased text. A query without any term (only stop words, or no
+ * ASCII words) is never cached: it would share one empty key with all the others. Entries are evicted by
+ * size and TTL; on a snapshot change the whole cache is dropped at once. Hit, miss and eviction counts are
+ * published as the {@code cache.*} meters tagged {@code cache=kb.retrieval}.
+ */
+final class KbResultCache {
+
+  private record Key(long version, String query, KbPolicy.AccessProfile profile) {}
+
+  /** Chunks of one retrieval; a degraded one (e.g. hybrid answered by lexical alone) is returned but not kept. */
+  record Retrieved(List<KbChunk> chunks, boolean degraded) {
+    Retrieved {
+      chunks = List.copyOf(chunks);
+    }
+  }
+
+  private final AsyncCache<Key, List<KbChunk>> cache;
+  private final AtomicLong version = new AtomicLong(-1);
+  private final boolean byTerms;
+
+  KbResultCache(long maxEntries, Duration ttl, boolean byTerms, MeterRegistry meters) {
+    this.byTerms = byTerms;
+    this.cache = Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(ttl)
+            .recordStats()
+            .buildAsync();
+    CaffeineCacheMetrics.monitor(meters, cache, "kb.retrieval");
+  }
+
+  /**
+   * The entry is a future that the first caller completes on its own thread, outside any lock: computing
+   * inside {@code Cache.get} would run retrieval (and the hybrid embedding call) under a map bin monitor,
+   * which pins virtual threads. Concurrent callers for the same key wait on the future instead.
+   * A failed retrieval is not cached; a degraded one is handed to the callers already waiting and then dropped.
+   */
+  List<KbChunk> get(KbSnapshot snapshot, String query, KbPolicy.AccessProfile profile, Supplier<Retrieved> retrieve) {
+    for (long seen; snapshot.version() > (seen = version.get()); ) {
+      if (version.compareAndSet(seen, snapshot.version())) {
+        cache.synchronous().invalidateAll();
+        break;
+      }
+    }
+    String terms = normalize(query);
+    if (terms.isEmpty()) return retrieve.get().chunks();
+    String key = byTerms ? terms : query.strip().toLowerCase(Locale.ROOT);
+    var mine = new CompletableFuture<List<KbChunk>>();
+    var k = new Key(snapshot.version(), key, profile);
+    var entry = cache.get(k, (ignored, executor) -> mine);
+    if (entry == mine) {
+      try {
+        Retrieved r = retrieve.get();
+        mine.complete(r.chunks());
+        if (r.degraded()) cache.asMap().remove(k, mine);
+      } catch (RuntimeException e) {
+        mine.completeExceptionally(e);
+        throw e;
+      }
+    }
+    return entry.join();
+  }
+
+  long size() {
+    return cache.synchronous().estimatedSize();
+  }
+
+  /** Sorted distinct terms, space-separated. */
+  static String normalize(String query) {
+    var terms = new TreeSet<String>();
+    KbTokenizer.scan(query, (buf, len) -> terms.add(new String(buf, 0, len)));
+    return String.join(" ", terms);
+  }
+}
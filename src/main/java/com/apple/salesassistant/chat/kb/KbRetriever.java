@@ -1,57 +1,220 @@
 package com.apple.salesassistant.chat.kb;
 
 import com.apple.salesassistant.auth.dto.UserContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
 
+/**
+ * Retrieval entry point for {@code ChatService}. {@code kb.retrieval-mode} selects:
+ * <ul>
+ *   <li>{@code lexical}: BM25/overlap over the inverted index</li>
+ *   <li>{@code vector}: {@link VectorRetriever}</li>
+ *   <li>{@code hybrid}: both in parallel against the same snapshot, merged with reciprocal rank fusion</li>
+ * </ul>
+ * Latency per retriever is recorded in the {@code kb.retrieval} timer, tagged {@code retriever}. Hybrid queries
+ * answered by lexical alone because the vector side failed, ran past {@code kb.hybrid.dense-timeout-ms} or found
+ * the pool and its queue full are counted in {@code kb.hybrid.fallback}, tagged {@code reason} (timeout, error,
+ * rejected).
+ * With {@code kb.cache.enabled} results are served from a {@link KbResultCache} first.
+ */
+@Slf4j
 @Component
 public class KbRetriever {
 
+  private final InMemoryKb kb;
+  private final VectorRetriever vectors;
+  private final KbScorer scorer;
+  private final String mode;
   private final int topK;
+  private final int candidates;
+  private final int rrfK;
+  private final long denseTimeoutMs;
+  private final ExecutorService pool;
+  private final KbResultCache cache;
+  private final Timer lexicalTimer;
+  private final Timer vectorTimer;
+  private final Timer hybridTimer;
+  private final Map<String, Counter> fallbacks;
 
-  public KbRetriever(org.springframework.core.env.Environment env) {
+  public KbRetriever(InMemoryKb kb, List<KbScorer> scorers, VectorRetriever vectors,
+                     org.springframework.core.env.Environment env, MeterRegistry meters) {
+    this.kb = kb;
+    this.vectors = vectors;
     this.topK = Integer.parseInt(env.getProperty("kb.top-k","4"));
+    this.mode = env.getProperty("kb.retrieval-mode", "lexical");
+    if (!mode.equals("lexical") && !mode.equals("vector") && !mode.equals("hybrid")) {
+      throw new IllegalArgumentException("Unknown kb.retrieval-mode: " + mode);
+    }
+    String key = env.getProperty("kb.scorer", "bm25");
+    this.scorer = scorers.stream().filter(s -> s.key().equals(key)).findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Unknown KB scorer: " + key));
+    this.candidates = Math.max(topK, Integer.parseInt(env.getProperty("kb.hybrid.candidates", "20")));
+    this.rrfK = Integer.parseInt(env.getProperty("kb.hybrid.rrf-k", "60"));
+    this.denseTimeoutMs = Long.parseLong(env.getProperty("kb.hybrid.dense-timeout-ms", "2000"));
+    // the vector side mostly waits on the embedding call, so with virtual threads it gets one per query;
+    // platform threads get a small queue, so a stalled embedder turns into fallbacks instead of a backlog
+    int threads = Integer.parseInt(env.getProperty("kb.hybrid.threads", "4"));
+    int queue = Integer.parseInt(env.getProperty("kb.hybrid.queue", "16"));
+    this.pool = !mode.equals("hybrid") ? null
+            : Boolean.parseBoolean(env.getProperty("spring.threads.virtual.enabled", "false"))
+            ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("kb-retrieval-", 0).factory())
+            : new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                queue > 0 ? new ArrayBlockingQueue<>(queue) : new SynchronousQueue<>(),
+                Thread.ofPlatform().daemon().name("kb-retrieval-", 0).factory());
+    this.cache = Boolean.parseBoolean(env.getProperty("kb.cache.enabled", "true"))
+            ? new KbResultCache(Long.parseLong(env.getProperty("kb.cache.max-entries", "10000")),
+                Duration.ofSeconds(Long.parseLong(env.getProperty("kb.cache.ttl-seconds", "600"))),
+                mode.equals("lexical"), meters)
+            : null;
+    this.lexicalTimer = timer(meters, "lexical");
+    this.vectorTimer = timer(meters, "vector");
+    this.hybridTimer = timer(meters, "hybrid");
+    this.fallbacks = Map.of("timeout", fallbacks(meters, "timeout"), "error", fallbacks(meters, "error"),
+            "rejected", fallbacks(meters, "rejected"));
+    log.info("KB retrieval mode: %s, scorer: %s".formatted(mode, scorer.key()));
   }
 
-  public List<KbChunk> topK(String query, List<KbChunk> all, UserContext user) {
-    // ABAC filter first
-    var pool = all.stream().filter(c -> KbPolicy.canSee(user, c)).toList();
-    var qTokens = tokens(query);
+  private static Timer timer(MeterRegistry meters, String retriever) {
+    return Timer.builder("kb.retrieval")
+            .description("KB retrieval latency")
+            .tag("retriever", retriever)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meters);
+  }
 
-    return pool.stream()
-            .map(c -> Map.entry(c, score(qTokens, c.title(), c.text())))
-            .sorted((a,b) -> Integer.compare(b.getValue(), a.getValue()))
-            .limit(topK)
-            .map(Map.Entry::getKey)
-            .collect(Collectors.toList());
+  private static Counter fallbacks(MeterRegistry meters, String reason) {
+    return Counter.builder("kb.hybrid.fallback")
+            .description("Hybrid retrievals answered by lexical alone")
+            .tag("reason", reason)
+            .register(meters);
   }
 
+  @PreDestroy
+  void shutdown() {
+    if (pool != null) pool.shutdownNow();
+  }
 
-  private static final Set<String> STOP = Set.of(
-          "the","a","an","and","or","of","for","to","in","on","by","is","are","was","were","with","at","as","from","that","this","it"
-  );
-  private static final Pattern WORD = Pattern.compile("[A-Za-z0-9+.%]+");
+  public List<KbChunk> topK(String query, UserContext user) {
+    KbSnapshot snapshot = kb.snapshot();
+    if (cache == null) return retrieve(snapshot, query, user).chunks();
+    return cache.get(snapshot, query, KbPolicy.AccessProfile.of(user), () -> retrieve(snapshot, query, user));
+  }
 
-  private static int score(Set<String> q, String title, String body) {
-    var t = tokens(title);
-    var b = tokens(body);
-    return overlap(q,t)*3 + overlap(q,b);
+  private KbResultCache.Retrieved retrieve(KbSnapshot snapshot, String query, UserContext user) {
+    return switch (mode) {
+      case "vector" -> new KbResultCache.Retrieved(vectorTimer.record(() -> vectors.topK(snapshot, query, user, topK)), false);
+      case "hybrid" -> hybridTimer.record(() -> hybridTopK(snapshot, query, user));
+      default -> new KbResultCache.Retrieved(lexicalTimer.record(() -> lexicalTopK(snapshot, query, user, topK)), false);
+    };
   }
 
-  private static int overlap(Set<String> a, Set<String> b) {
-    int s = 0; for (String t : a) if (b.contains(t)) s++; return s;
+  /**
+   * Runs vector retrieval (which waits on the embedding call) on the pool while lexical retrieval runs on
+   * the caller's thread, then fuses the two rankings: score(c) = sum over rankings of 1 / (rrfK + rank).
+   * RRF needs no score calibration between BM25 and cosine; ties keep lexical order.
+   * If the vector side is rejected, fails or is not done within {@code denseTimeoutMs} of being submitted, the
+   * lexical top K is returned as a degraded result, which is not cached. A late task is cancelled: interrupted if
+   * it is running, dropped from the queue if not.
+   */
+  private KbResultCache.Retrieved hybridTopK(KbSnapshot snapshot, String query, UserContext user) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(denseTimeoutMs);
+    var dense = new FutureTask<>(() -> vectorTimer.record(() -> vectors.topK(snapshot, query, user, candidates)));
+    boolean submitted = true;
+    try {
+      pool.execute(dense);
+    } catch (RejectedExecutionException e) {
+      submitted = false;
+    }
+    List<KbChunk> lexical = lexicalTimer.record(() -> lexicalTopK(snapshot, query, user, candidates));
+    if (!submitted) return fallback("rejected", lexical, null);
+
+    List<KbChunk> vector;
+    try {
+      vector = dense.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      cancel(dense);
+      return fallback("timeout", lexical, null);
+    } catch (ExecutionException e) {
+      return fallback("error", lexical, e.getCause());
+    } catch (InterruptedException e) {
+      cancel(dense);
+      Thread.currentThread().interrupt();
+      return new KbResultCache.Retrieved(lexical.subList(0, Math.min(topK, lexical.size())), true);
+    }
+
+    Map<UUID, Double> fused = new HashMap<>();
+    Map<UUID, KbChunk> byId = new LinkedHashMap<>();
+    for (List<KbChunk> ranking : List.of(lexical, vector)) {
+      for (int rank = 0; rank < ranking.size(); rank++) {
+        KbChunk c = ranking.get(rank);
+        fused.merge(c.chunkId(), 1.0 / (rrfK + rank + 1), Double::sum);
+        byId.putIfAbsent(c.chunkId(), c);
+      }
+    }
+    return new KbResultCache.Retrieved(byId.values().stream()
+            .sorted(Comparator.comparingDouble((KbChunk c) -> fused.get(c.chunkId())).reversed())
+            .limit(topK)
+            .toList(), false);
+  }
+
+  private void cancel(FutureTask<?> task) {
+    task.cancel(true);
+    if (pool instanceof ThreadPoolExecutor bounded) bounded.remove(task);
+  }
+
+  private KbResultCache.Retrieved fallback(String reason, List<KbChunk> lexical, Throwable cause) {
+    fallbacks.get(reason).increment();
+    log.warn("Vector retrieval %s, answering from lexical only%s".formatted(
+            reason.equals("timeout") ? "timed out after " + denseTimeoutMs + " ms" : reason.equals("error") ? "failed"
+                    : "rejected (pool and queue full)", cause != null ? ": " + cause : ""));
+    return new KbResultCache.Retrieved(lexical.subList(0, Math.min(topK, lexical.size())), true);
   }
 
-  private static Set<String> tokens(String s) {
-    var m = WORD.matcher(s.toLowerCase());
-    Set<String> out = new HashSet<>();
-    while (m.find()) {
-      String t = m.group();
-      if (!STOP.contains(t) && t.length() > 1) out.add(t);
+  /**
+   * Single pass over the query terms' postings in ordinal order (document-at-a-time):
+   * each candidate chunk is checked against the caller's cached visibility bitset,
+   * scored only if visible, and offered to a K-sized heap.
+   * Work is bounded by the postings touched, garbage by K.
+   */
+  private List<KbChunk> lexicalTopK(KbSnapshot snapshot, String query, UserContext user, int k) {
+    KbIndex index = snapshot.index();
+    ChunkBitSet visibleChunks = snapshot.visible(KbPolicy.AccessProfile.of(user));
+
+    int[] termIds = KbTokenizer.termIds(query, index);
+    KbIndex.Postings[] lists = new KbIndex.Postings[termIds.length];
+    int n = 0;
+    for (int id : termIds) {
+      KbIndex.Postings p = index.postings(id);
+      if (p.size() > 0) lists[n++] = p;
+    }
+    int[] cursor = new int[n];
+    KbTopK best = new KbTopK(k);
+
+    while (true) {
+      int doc = Integer.MAX_VALUE;
+      for (int t = 0; t < n; t++) {
+        if (cursor[t] < lists[t].size()) doc = Math.min(doc, lists[t].docs()[cursor[t]]);
+      }
+      if (doc == Integer.MAX_VALUE) break;
+
+      boolean visible = visibleChunks.get(doc);
+      double score = 0;
+      for (int t = 0; t < n; t++) {
+        if (cursor[t] < lists[t].size() && lists[t].docs()[cursor[t]] == doc) {
+          if (visible) score += scorer.score(index, lists[t], cursor[t]);
+          cursor[t]++;
+        }
+      }
+      if (visible) best.offer(doc, score);
     }
-    return out;
+    return best.toList(snapshot.chunks());
   }
 }
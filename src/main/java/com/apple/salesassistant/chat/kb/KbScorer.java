@@ -0,0 +1,21 @@
+package com.apple.salesassistant.chat.kb;
+
+/**
+ * Ranking function used by {@link KbRetriever}. Scores are additive over query terms,
+ * so implementations only see one term's postings at a time.
+ */
+public interface KbScorer {
+
+  /**
+   * Contribution of one query term to one chunk.
+   * @param index     index the postings come from (collection statistics, field lengths)
+   * @param postings  postings of the query term
+   * @param i         position in {@code postings}; the chunk ordinal is {@code postings.docs()[i]}
+   */
+  double score(KbIndex index, KbIndex.Postings postings, int i);
+
+  /**
+   * Unique scorer key, selected with {@code kb.scorer}.
+   */
+  String key();
+}
@@ -0,0 +1,192 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Read side of the compiled KB segment written by {@link KbSegmentWriter}. The file is memory-mapped
+ * and nothing is decoded up front: chunks are materialized on {@code get}, postings on lookup (binary
+ * search over the sorted term table), so opening is constant time and the corpus stays off-heap.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * header      magic, format, chunkCount, termCount, section offsets, source length,
+ *             avg title/body length, SHA-256 fingerprint of the source documents
+ * chunk table chunkCount x (long offset, int length)  -> chunk records
+ * lengths     chunkCount x (int titleLength, int bodyLength)
+ * term table  termCount x (long termOffset, int termLength, long postingsOffset, int df), sorted by term bytes
+ * postings    per term: df x doc, df x titleFreq, df x bodyFreq
+ * terms       UTF-8 term bytes
+ * chunks      per chunk: uuid, docId, title, text, tenantId, scope, minRole, tags
+ * source      original UTF-8 KB text
+ * </pre>
+ * The mapping lives as long as the segment is reachable, so a snapshot in use keeps its file view
+ * even after a newer segment is published. Segments are limited to 2 GB (one mapping).
+ */
+public final class KbSegment {
+
+  static final int MAGIC = 0x4B425331; // "KBS1"
+  static final int FORMAT = 1;
+  static final int HEADER_SIZE = 104;
+  static final int CHUNK_ENTRY = 12;
+  static final int LENGTH_ENTRY = 8;
+  static final int TERM_ENTRY = 24;
+
+  private final ByteBuffer buf;
+  private final int chunkCount;
+  private final int termCount;
+  private final long chunkTable;
+  private final long lengths;
+  private final long termTable;
+  private final long source;
+  private final long sourceLength;
+  private final double avgTitleLength;
+  private final double avgBodyLength;
+  private final String fingerprint;
+
+  private KbSegment(ByteBuffer buf) {
+    this.buf = buf;
+    if (buf.getInt(0) != MAGIC) throw new IllegalStateException("Not a KB segment");
+    if (buf.getInt(4) != FORMAT) throw new IllegalStateException("Unsupported KB segment format " + buf.getInt(4));
+    this.chunkCount = buf.getInt(8);
+    this.termCount = buf.getInt(12);
+    this.chunkTable = buf.getLong(16);
+    this.lengths = buf.getLong(24);
+    this.termTable = buf.getLong(32);
+    this.source = buf.getLong(40);
+    this.sourceLength = buf.getLong(48);
+    this.avgTitleLength = buf.getDouble(56);
+    this.avgBodyLength = buf.getDouble(64);
+    byte[] sha = new byte[32];
+    buf.get(72, sha);
+    this.fingerprint = HexFormat.of().formatHex(sha);
+  }
+
+  public static KbSegment open(Path file) throws IOException {
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (ch.size() > Integer.MAX_VALUE) throw new IllegalStateException("KB segment over 2 GB: " + file);
+      MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      return new KbSegment(map);
+    }
+  }
+
+  /** Fingerprint of the source documents the segment was compiled from (see {@link KbDocuments#fingerprint}). */
+  public String fingerprint() { return fingerprint; }
+
+  /** Original KB text; decoded on each call. */
+  public String source() {
+    return string(source, (int) sourceLength);
+  }
+
+  /** Lazy view over the chunk records; each {@code get} decodes one chunk. */
+  public List<KbChunk> chunks() {
+    return new AbstractList<>() {
+      @Override public KbChunk get(int ord) { return chunk(ord); }
+      @Override public int size() { return chunkCount; }
+    };
+  }
+
+  public KbIndex index() {
+    return new KbIndex() {
+      @Override public int termId(char[] term, int len) { return KbSegment.this.termId(term, len); }
+      @Override public Postings postings(int termId) { return KbSegment.this.postings(termId); }
+      @Override public int size() { return chunkCount; }
+      @Override public int terms() { return termCount; }
+      @Override public int titleLength(int ord) { return buf.getInt(at(lengths + (long) ord * LENGTH_ENTRY)); }
+      @Override public int bodyLength(int ord) { return buf.getInt(at(lengths + (long) ord * LENGTH_ENTRY + 4)); }
+      @Override public double avgTitleLength() { return avgTitleLength; }
+      @Override public double avgBodyLength() { return avgBodyLength; }
+    };
+  }
+
+  private KbChunk chunk(int ord) {
+    Objects.checkIndex(ord, chunkCount);
+    var in = new Reader(buf.getLong(at(chunkTable + (long) ord * CHUNK_ENTRY)));
+    UUID id = new UUID(in.readLong(), in.readLong());
+    String docId = in.readString();
+    String title = in.readString();
+    String text = in.readString();
+    String tenantId = in.readString();
+    var scope = KbChunk.AccessScope.values()[in.readByte()];
+    var minRole = KbChunk.MinRole.values()[in.readByte()];
+    int tagCount = in.readByte();
+    String[] tags = new String[tagCount];
+    for (int i = 0; i < tagCount; i++) tags[i] = in.readString();
+    return new KbChunk(id, docId, title, text, tenantId, scope, minRole, Set.of(tags));
+  }
+
+  /** Term IDs are positions in the sorted term table, found by binary search against the stored bytes. */
+  private int termId(char[] term, int len) {
+    int lo = 0, hi = termCount - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      long entry = termTable + (long) mid * TERM_ENTRY;
+      int cmp = compareTerm(buf.getLong(at(entry)), buf.getInt(at(entry + 8)), term, len);
+      if (cmp < 0) lo = mid + 1;
+      else if (cmp > 0) hi = mid - 1;
+      else return mid;
+    }
+    return -1;
+  }
+
+  private KbIndex.Postings postings(int termId) {
+    long entry = termTable + (long) Objects.checkIndex(termId, termCount) * TERM_ENTRY;
+    return readPostings(buf.getLong(at(entry + 12)), buf.getInt(at(entry + 20)));
+  }
+
+  private KbIndex.Postings readPostings(long offset, int df) {
+    int[] docs = new int[df], titleFreq = new int[df], bodyFreq = new int[df];
+    buf.slice(at(offset), df * 12).asIntBuffer().get(docs).get(titleFreq).get(bodyFreq);
+    return new KbIndex.Postings(docs, titleFreq, bodyFreq);
+  }
+
+  /**
+   * Unsigned lexicographic comparison of the stored term bytes against {@code key[0, len)}. Terms are
+   * ASCII (see {@link KbTokenizer}), so each char compares directly with its UTF-8 byte.
+   */
+  private int compareTerm(long offset, int length, char[] key, int len) {
+    int base = at(offset);
+    int n = Math.min(length, len);
+    for (int i = 0; i < n; i++) {
+      int c = Integer.compare(Byte.toUnsignedInt(buf.get(base + i)), key[i]);
+      if (c != 0) return c;
+    }
+    return Integer.compare(length, len);
+  }
+
+  private String string(long offset, int length) {
+    byte[] bytes = new byte[length];
+    buf.get(at(offset), bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int at(long offset) {
+    return Math.toIntExact(offset);
+  }
+
+  /** Sequential decoder over a chunk record using absolute reads only, so the shared buffer stays thread-safe. */
+  private final class Reader {
+    private int pos;
+
+    Reader(long offset) { this.pos = at(offset); }
+
+    long readLong() { long v = buf.getLong(pos); pos += 8; return v; }
+
+    byte readByte() { return buf.get(pos++); }
+
+    String readString() {
+      int len = buf.getInt(pos);
+      pos += 4;
+      if (len < 0) return null;
+      String s = string(pos, len);
+      pos += len;
+      return s;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.apple.salesassistant.chat.kb;
+
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Offline step that compiles a text KB (one file, or a directory of documents) into a binary segment
+ * for {@code kb.format=segment}.
+ * <pre>
+ * ./gradlew compileKb -PkbIn=src/main/resources/kb/kb.txt -PkbOut=build/kb/kb.seg [-PkbChunkTokens=180] [-PkbOverlapTokens=20]
+ * </pre>
+ * Chunking is the same {@link KbChunker} the text mode uses, so both modes serve identical chunks.
+ */
+public final class KbSegmentCompiler {
+  private KbSegmentCompiler() {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("usage: KbSegmentCompiler <kb file or directory> <out.seg> [maxTokens [overlapTokens]]");
+      System.exit(2);
+    }
+    Path in = Path.of(args[0]);
+    Path out = Path.of(args[1]);
+    int maxTokens = args.length > 2 ? Integer.parseInt(args[2]) : 180;
+    int overlapTokens = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+    long t0 = System.currentTimeMillis();
+    KbChunker chunker = new KbChunker(maxTokens, overlapTokens);
+    List<KbDocuments.Document> docs = KbDocuments.resolve(new DefaultResourceLoader(), in.toAbsolutePath().toUri().toString());
+    List<KbChunk> chunks = docs.parallelStream()
+            .flatMap(d -> {
+              try (Reader r = d.reader()) {
+                return chunker.chunkAll(d.docId(), r).stream();
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            })
+            .toList();
+    HeapKbIndex index = HeapKbIndex.build(chunks);
+    if (out.toAbsolutePath().getParent() != null) Files.createDirectories(out.toAbsolutePath().getParent());
+    KbSegmentWriter.write(KbDocuments.fingerprint(docs), KbDocuments.readAll(docs), chunks, index, out);
+    System.out.printf("Compiled %d documents, %d chunks, %d terms into %s (%d bytes) in %d ms%n",
+            docs.size(), chunks.size(), index.terms(), out, Files.size(out), System.currentTimeMillis() - t0);
+  }
+}
@@ -0,0 +1,117 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static com.apple.salesassistant.chat.kb.KbSegment.*;
+
+/** Write side of the {@link KbSegment} format. */
+final class KbSegmentWriter {
+  private KbSegmentWriter() {}
+
+  /**
+   * Writes the segment to a temp file next to {@code out} and moves it into place atomically,
+   * so a process mapping the old file never sees a partially written one.
+   */
+  static void write(String fingerprintHex, String sourceText, List<KbChunk> chunks, HeapKbIndex index, Path out)
+          throws Exception {
+    byte[] source = sourceText.getBytes(StandardCharsets.UTF_8);
+    byte[] fingerprint = HexFormat.of().parseHex(fingerprintHex);
+
+    List<Map.Entry<byte[], KbIndex.Postings>> terms = new ArrayList<>();
+    for (int id = 0; id < index.terms(); id++) {
+      terms.add(Map.entry(index.term(id).getBytes(StandardCharsets.UTF_8), index.postings(id)));
+    }
+    terms.sort((a, b) -> Arrays.compareUnsigned(a.getKey(), b.getKey()));
+
+    List<byte[]> records = new ArrayList<>(chunks.size());
+    for (KbChunk c : chunks) records.add(encode(c));
+
+    long chunkTable = HEADER_SIZE;
+    long lengths = chunkTable + (long) chunks.size() * CHUNK_ENTRY;
+    long termTable = lengths + (long) chunks.size() * LENGTH_ENTRY;
+    long postings = termTable + (long) terms.size() * TERM_ENTRY;
+    long termBytes = postings;
+    for (var t : terms) termBytes += 12L * t.getValue().size();
+    long chunkBytes = termBytes;
+    for (var t : terms) chunkBytes += t.getKey().length;
+    long sourceOffset = chunkBytes;
+    for (byte[] r : records) sourceOffset += r.length;
+    if (sourceOffset + source.length > Integer.MAX_VALUE) throw new IllegalStateException("KB segment over 2 GB");
+
+    Path tmp = Files.createTempFile(out.toAbsolutePath().getParent(), out.getFileName().toString(), ".tmp");
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+         var data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16))) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+              .putInt(MAGIC).putInt(FORMAT).putInt(chunks.size()).putInt(terms.size())
+              .putLong(chunkTable).putLong(lengths).putLong(termTable).putLong(sourceOffset).putLong(source.length)
+              .putDouble(index.avgTitleLength()).putDouble(index.avgBodyLength())
+              .put(fingerprint);
+      data.write(header.array());
+
+      long offset = chunkBytes;
+      for (byte[] r : records) {
+        data.writeLong(offset);
+        data.writeInt(r.length);
+        offset += r.length;
+      }
+      for (int ord = 0; ord < chunks.size(); ord++) {
+        data.writeInt(index.titleLength(ord));
+        data.writeInt(index.bodyLength(ord));
+      }
+      long postingsAt = postings, termAt = termBytes;
+      for (var t : terms) {
+        data.writeLong(termAt);
+        data.writeInt(t.getKey().length);
+        data.writeLong(postingsAt);
+        data.writeInt(t.getValue().size());
+        termAt += t.getKey().length;
+        postingsAt += 12L * t.getValue().size();
+      }
+      for (var t : terms) {
+        KbIndex.Postings p = t.getValue();
+        for (int d : p.docs()) data.writeInt(d);
+        for (int f : p.titleFreq()) data.writeInt(f);
+        for (int f : p.bodyFreq()) data.writeInt(f);
+      }
+      for (var t : terms) data.write(t.getKey());
+      for (byte[] r : records) data.write(r);
+      data.write(source);
+    } catch (Exception e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static byte[] encode(KbChunk c) throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    var out = new DataOutputStream(bytes);
+    out.writeLong(c.chunkId().getMostSignificantBits());
+    out.writeLong(c.chunkId().getLeastSignificantBits());
+    writeString(out, c.docId());
+    writeString(out, c.title());
+    writeString(out, c.text());
+    writeString(out, c.tenantId());
+    out.writeByte(c.accessScope().ordinal());
+    out.writeByte(c.minRole().ordinal());
+    out.writeByte(c.tags().size());
+    for (String tag : new TreeSet<>(c.tags())) writeString(out, tag);
+    return bytes.toByteArray();
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+}
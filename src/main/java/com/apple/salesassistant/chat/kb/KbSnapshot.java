@@ -0,0 +1,30 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One immutable, versioned view of the knowledge base: chunks and the indexes built over them.
+ * {@link InMemoryKb} swaps the whole snapshot atomically on reload.
+ *
+ * @param fingerprint SHA-256 over the source documents the chunks were read from (see {@link KbDocuments#fingerprint}),
+ *                    used to detect changes
+ * @param vectors     chunk embeddings by ordinal; null unless a vector retrieval mode is enabled
+ * @param ann         approximate nearest-neighbour graph over {@code vectors}; null when brute force is configured
+ * @param sections    chunks per section key (content hash + occurrence), used to skip re-chunking unchanged sections
+ */
+public record KbSnapshot(
+    long version,
+    String fingerprint,
+    List<KbChunk> chunks,
+    KbIndex index,
+    KbVisibilityIndex visibility,
+    EmbeddingMatrix vectors,
+    HnswIndex ann,
+    Map<String, List<KbChunk>> sections
+) {
+  /** Chunks visible to {@code profile}, cached per distinct profile. */
+  public ChunkBitSet visible(KbPolicy.AccessProfile profile) {
+    return visibility.visible(profile);
+  }
+}
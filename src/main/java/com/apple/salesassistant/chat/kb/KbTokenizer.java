@@ -0,0 +1,69 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.util.Arrays;
+
+/**
+ * Shared tokenization for KB indexing and query parsing, so both sides agree on terms. A term is a run of
+ * {@code [A-Za-z0-9+.%]}, ASCII-lowercased into a reusable buffer while scanning; stop words and single
+ * characters are dropped. Tokens are handed out as {@code (buf, len)} and resolved to int IDs by the caller,
+ * so no String is created per token.
+ */
+public final class KbTokenizer {
+  private KbTokenizer() {}
+
+  private static final TermDictionary STOP = new TermDictionary();
+  static {
+    for (String w : new String[] {
+            "the","a","an","and","or","of","for","to","in","on","by","is","are","was","were","with","at","as","from","that","this","it"
+    }) STOP.intern(w);
+  }
+
+  /** Receives one lowercase term in {@code buf[0, len)}; the buffer is reused for the next term. */
+  public interface Sink {
+    void term(char[] buf, int len);
+  }
+
+  /** Calls {@code sink} for every term occurrence in order. */
+  public static void scan(CharSequence s, Sink sink) {
+    char[] buf = new char[32];
+    int len = 0;
+    for (int i = 0, n = s.length(); i <= n; i++) {
+      char c = i < n ? s.charAt(i) : ' ';
+      if (isTermChar(c)) {
+        if (len == buf.length) buf = Arrays.copyOf(buf, len * 2);
+        buf[len++] = c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+      } else if (len > 0) {
+        if (len > 1 && STOP.id(buf, len) < 0) sink.term(buf, len);
+        len = 0;
+      }
+    }
+  }
+
+  /** Distinct IDs of the query's terms known to {@code index}, in query order. */
+  static int[] termIds(CharSequence query, KbIndex index) {
+    var ids = new IdCollector(index);
+    scan(query, ids);
+    return Arrays.copyOf(ids.ids, ids.n);
+  }
+
+  private static final class IdCollector implements Sink {
+    private final KbIndex index;
+    private int[] ids = new int[8];
+    private int n;
+
+    IdCollector(KbIndex index) { this.index = index; }
+
+    @Override
+    public void term(char[] buf, int len) {
+      int id = index.termId(buf, len);
+      if (id < 0) return;
+      for (int i = 0; i < n; i++) if (ids[i] == id) return;
+      if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+      ids[n++] = id;
+    }
+  }
+
+  private static boolean isTermChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '+' || c == '.' || c == '%';
+  }
+}
@@ -0,0 +1,77 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed-size min-heap of the best K (ordinal, score) pairs. The root is the current worst entry,
+ * so each offer is O(log K) and nothing beyond the two K-sized arrays is allocated.
+ * Ties rank the lower ordinal first, which keeps KB order for equal scores.
+ */
+final class KbTopK {
+
+  private final int[] docs;
+  private final double[] scores;
+  private int size;
+
+  KbTopK(int k) {
+    this.docs = new int[Math.max(k, 0)];
+    this.scores = new double[Math.max(k, 0)];
+  }
+
+  void offer(int doc, double score) {
+    if (docs.length == 0) return;
+    if (size < docs.length) {
+      docs[size] = doc;
+      scores[size] = score;
+      siftUp(size++);
+    } else if (worse(docs[0], scores[0], doc, score)) {
+      docs[0] = doc;
+      scores[0] = score;
+      siftDown(0);
+    }
+  }
+
+  /** Drains the heap into a best-first list of chunks. */
+  List<KbChunk> toList(List<KbChunk> chunks) {
+    KbChunk[] out = new KbChunk[size];
+    while (size > 0) {
+      out[size - 1] = chunks.get(docs[0]);
+      size--;
+      docs[0] = docs[size];
+      scores[0] = scores[size];
+      siftDown(0);
+    }
+    return Arrays.asList(out);
+  }
+
+  /** True if (docA, scoreA) ranks below (docB, scoreB). */
+  private static boolean worse(int docA, double scoreA, int docB, double scoreB) {
+    return scoreA < scoreB || (scoreA == scoreB && docA > docB);
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!worse(docs[i], scores[i], docs[parent], scores[parent])) break;
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i) {
+    while (true) {
+      int l = 2 * i + 1, r = l + 1, min = i;
+      if (l < size && worse(docs[l], scores[l], docs[min], scores[min])) min = l;
+      if (r < size && worse(docs[r], scores[r], docs[min], scores[min])) min = r;
+      if (min == i) return;
+      swap(i, min);
+      i = min;
+    }
+  }
+
+  private void swap(int a, int b) {
+    int d = docs[a]; docs[a] = docs[b]; docs[b] = d;
+    double s = scores[a]; scores[a] = scores[b]; scores[b] = s;
+  }
+}
@@ -0,0 +1,32 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-profile visibility over one chunk list. {@link KbPolicy} is evaluated once per chunk the first
+ * time an access profile is seen; afterwards ABAC filtering is a bit test on the cached set.
+ * Profiles beyond {@code maxProfiles} are still answered, just not cached.
+ */
+public final class KbVisibilityIndex {
+
+  private final List<KbChunk> chunks;
+  private final int maxProfiles;
+  private final Map<KbPolicy.AccessProfile, ChunkBitSet> cache = new ConcurrentHashMap<>();
+
+  public KbVisibilityIndex(List<KbChunk> chunks, int maxProfiles) {
+    this.chunks = chunks;
+    this.maxProfiles = maxProfiles;
+  }
+
+  public ChunkBitSet visible(KbPolicy.AccessProfile profile) {
+    ChunkBitSet bits = cache.get(profile);
+    if (bits != null) return bits;
+    bits = ChunkBitSet.of(chunks.size(), ord -> KbPolicy.canSee(profile, chunks.get(ord)));
+    if (cache.size() < maxProfiles) cache.putIfAbsent(profile, bits);
+    return bits;
+  }
+
+  public int profiles() { return cache.size(); }
+}
@@ -0,0 +1,18 @@
+package com.apple.salesassistant.chat.kb;
+
+import org.springframework.stereotype.Component;
+
+/** Original term-overlap ranking: a title hit weighs 3, a body hit 1, frequency ignored. */
+@Component
+public class OverlapScorer implements KbScorer {
+
+  @Override
+  public double score(KbIndex index, KbIndex.Postings p, int i) {
+    return (p.titleFreq()[i] > 0 ? 3 : 0) + (p.bodyFreq()[i] > 0 ? 1 : 0);
+  }
+
+  @Override
+  public String key() {
+    return "overlap";
+  }
+}
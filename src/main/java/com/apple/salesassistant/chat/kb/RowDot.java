@@ -0,0 +1,10 @@
+package com.apple.salesassistant.chat.kb;
+
+/** Dot products over the rows of an {@link EmbeddingMatrix}. */
+interface RowDot {
+  /** Row against a query vector. */
+  float dot(int row, float[] q);
+
+  /** Row against row. */
+  float dot(int a, int b);
+}
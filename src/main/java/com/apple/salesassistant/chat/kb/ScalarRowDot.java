@@ -0,0 +1,32 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/** Portable fallback used when the JVM runs without the Vector API. */
+final class ScalarRowDot implements RowDot {
+
+  private final FloatBuffer data;
+  private final int dim;
+
+  ScalarRowDot(ByteBuffer data, int dim) {
+    this.data = data.asFloatBuffer();
+    this.dim = dim;
+  }
+
+  @Override
+  public float dot(int row, float[] q) {
+    int base = row * dim;
+    float sum = 0;
+    for (int i = 0; i < dim; i++) sum += data.get(base + i) * q[i];
+    return sum;
+  }
+
+  @Override
+  public float dot(int a, int b) {
+    int baseA = a * dim, baseB = b * dim;
+    float sum = 0;
+    for (int i = 0; i < dim; i++) sum += data.get(baseA + i) * data.get(baseB + i);
+    return sum;
+  }
+}
@@ -0,0 +1,64 @@
+package com.apple.salesassistant.chat.kb;
+
+import java.util.Arrays;
+
+/**
+ * Interns terms to dense int IDs (0, 1, 2, ... in first-seen order). Lookups hash and compare the caller's
+ * char buffer directly, so resolving a scanned token allocates nothing. Open addressing with linear probing.
+ * Not thread-safe while interning; read-only use after construction is safe once published.
+ */
+final class TermDictionary {
+
+  private char[][] terms = new char[16][];
+  private int[] table = new int[32];      // term ID + 1; 0 = empty slot
+  private int size;
+
+  /** ID of {@code buf[0, len)}, or -1 if it was never interned. */
+  int id(char[] buf, int len) {
+    int mask = table.length - 1;
+    for (int slot = hash(buf, len) & mask; ; slot = (slot + 1) & mask) {
+      int entry = table[slot];
+      if (entry == 0) return -1;
+      if (Arrays.equals(terms[entry - 1], 0, terms[entry - 1].length, buf, 0, len)) return entry - 1;
+    }
+  }
+
+  /** ID of {@code buf[0, len)}, assigning the next one if it is new. */
+  int intern(char[] buf, int len) {
+    int id = id(buf, len);
+    if (id >= 0) return id;
+    if ((size + 1) * 2 > table.length) rehash(table.length * 2);
+    if (size == terms.length) terms = Arrays.copyOf(terms, size * 2);
+    terms[size] = Arrays.copyOf(buf, len);
+    insert(size);
+    return size++;
+  }
+
+  int intern(String term) {
+    return intern(term.toCharArray(), term.length());
+  }
+
+  String term(int id) {
+    return new String(terms[id]);
+  }
+
+  int size() { return size; }
+
+  private void rehash(int capacity) {
+    table = new int[capacity];
+    for (int id = 0; id < size; id++) insert(id);
+  }
+
+  private void insert(int id) {
+    int mask = table.length - 1;
+    int slot = hash(terms[id], terms[id].length) & mask;
+    while (table[slot] != 0) slot = (slot + 1) & mask;
+    table[slot] = id + 1;
+  }
+
+  private static int hash(char[] buf, int len) {
+    int h = 0;
+    for (int i = 0; i < len; i++) h = 31 * h + buf[i];
+    return h ^ (h >>> 16);
+  }
+}
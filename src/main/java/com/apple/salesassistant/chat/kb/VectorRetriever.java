@@ -0,0 +1,49 @@
+package com.apple.salesassistant.chat.kb;
+
+import com.apple.salesassistant.auth.dto.UserContext;
+import com.apple.salesassistant.chat.llm.EmbeddingService;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Dense retrieval over the snapshot's {@link EmbeddingMatrix}: embed the query, score the chunks the
+ * caller may see (same visibility bitset as lexical retrieval) and keep the best K. Walks the snapshot's
+ * {@link HnswIndex} when one is built, otherwise scores every row.
+ */
+@Component
+public class VectorRetriever {
+
+  private final InMemoryKb kb;
+  private final EmbeddingService embeddings;
+  private final int efSearch;
+
+  public VectorRetriever(InMemoryKb kb, EmbeddingService embeddings) {
+    this.kb = kb;
+    this.embeddings = embeddings;
+    this.efSearch = kb.hnsw() != null ? kb.hnsw().efSearch() : 0;
+  }
+
+  public List<KbChunk> topK(String query, UserContext user, int k) {
+    return topK(kb.snapshot(), query, user, k);
+  }
+
+  List<KbChunk> topK(KbSnapshot snapshot, String query, UserContext user, int k) {
+    EmbeddingMatrix vectors = snapshot.vectors();
+    if (vectors == null) {
+      throw new IllegalStateException("KB v%d has no embeddings; enable a vector kb.retrieval-mode".formatted(snapshot.version()));
+    }
+    float[] q = EmbeddingMatrix.normalize(embeddings.embed(query));
+    ChunkBitSet visible = snapshot.visible(KbPolicy.AccessProfile.of(user));
+
+    KbTopK best = new KbTopK(k);
+    if (snapshot.ann() != null) {
+      snapshot.ann().search(q, visible, Math.max(efSearch, k), best);
+    } else {
+      for (int ord = 0; ord < vectors.rows(); ord++) {
+        if (visible.get(ord)) best.offer(ord, vectors.dot(ord, q));
+      }
+    }
+    return best.toList(snapshot.chunks());
+  }
+}
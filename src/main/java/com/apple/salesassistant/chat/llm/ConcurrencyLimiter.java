@@ -0,0 +1,217 @@
+package com.apple.salesassistant.chat.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the calls in flight to one provider, with a limit that follows observed latency (gradient, as in
+ * Netflix concurrency-limits): each completed call compares its duration with the long-run average and
+ * {@code limit = limit * min(1, tolerance * long / sample) + sqrt(limit)}, smoothed and kept within
+ * {@code [min, max]}; a failed call multiplies the limit by {@code backoff}. So the limit grows while the
+ * provider keeps its pace and shrinks as soon as calls start to queue inside it.
+ * <p>
+ * A call over the limit waits at most {@code max-wait-ms} in a queue of at most {@code queue} entries;
+ * analysts and admins go ahead of guests and push the newest guest out of a full queue. Calls that cannot be
+ * admitted get {@link LlmOverloadedException} (429) right away.
+ * Settings are {@code llm.limit.<provider>.<name>}, falling back to {@code llm.limit.<name>}.
+ */
+final class ConcurrencyLimiter {
+
+    enum Priority {
+        HIGH, LOW;
+
+        private static final Set<String> PRIVILEGED = Set.of("ROLE_ANALYST", "ROLE_ADMIN");
+
+        /** HIGH for an authenticated analyst or admin on the calling thread, LOW for guests. */
+        static Priority current() {
+            var auth = SecurityContextHolder.getContext().getAuthentication();
+            if (auth == null || !auth.isAuthenticated() || auth instanceof AnonymousAuthenticationToken) return LOW;
+            return auth.getAuthorities().stream().map(GrantedAuthority::getAuthority).anyMatch(PRIVILEGED::contains)
+                    ? HIGH : LOW;
+        }
+    }
+
+    enum Outcome { SUCCESS, FAILURE, IGNORED }
+
+    /** A slot held by one call; released exactly once. */
+    final class Permit {
+        private final long start = System.nanoTime();
+        private final int inFlightAtStart;
+        private boolean released;
+
+        private Permit(int inFlightAtStart) {
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        void release(Outcome outcome) {
+            if (released) return;
+            released = true;
+            ConcurrencyLimiter.this.release(this, outcome);
+        }
+    }
+
+    private static final class Waiter {
+        final Condition admitted;
+        boolean granted;
+        boolean evicted;
+
+        Waiter(Condition admitted) {
+            this.admitted = admitted;
+        }
+    }
+
+    private static final double SMOOTHING = 0.2;
+    private static final int LONG_WINDOW = 100;     // calls averaged into the long-run latency
+
+    private final String provider;
+    private final boolean enabled;
+    private final int min;
+    private final int max;
+    private final int queue;
+    private final long maxWaitNanos;
+    private final double tolerance;
+    private final double backoff;
+    private final Map<Priority, Counter> rejected = new EnumMap<>(Priority.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Waiter> high = new ArrayDeque<>();
+    private final Deque<Waiter> low = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private double longNanos = Double.NaN;
+
+    ConcurrencyLimiter(String provider, Environment env, MeterRegistry meters) {
+        this.provider = provider;
+        this.enabled = Boolean.parseBoolean(prop(env, provider, "enabled", "true"));
+        this.min = Integer.parseInt(prop(env, provider, "min", "1"));
+        this.max = Integer.parseInt(prop(env, provider, "max", "64"));
+        this.limit = Math.clamp(Integer.parseInt(prop(env, provider, "initial", "8")), min, max);
+        this.queue = Integer.parseInt(prop(env, provider, "queue", "16"));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(prop(env, provider, "max-wait-ms", "2000")));
+        this.tolerance = Double.parseDouble(prop(env, provider, "tolerance", "2.0"));
+        this.backoff = Double.parseDouble(prop(env, provider, "backoff", "0.9"));
+        if (!enabled) return;
+        Gauge.builder("llm.limit.limit", this, ConcurrencyLimiter::limit)
+                .description("Adaptive concurrency limit").tag("provider", provider).register(meters);
+        Gauge.builder("llm.limit.inflight", this, ConcurrencyLimiter::inFlight)
+                .description("Calls holding a slot").tag("provider", provider).register(meters);
+        Gauge.builder("llm.limit.queued", this, ConcurrencyLimiter::queued)
+                .description("Calls waiting for a slot").tag("provider", provider).register(meters);
+        for (Priority p : Priority.values()) {
+            rejected.put(p, Counter.builder("llm.limit.rejected").description("Calls refused at the concurrency limit")
+                    .tag("provider", provider).tag("priority", p.name().toLowerCase()).register(meters));
+        }
+    }
+
+    private static String prop(Environment env, String provider, String name, String fallback) {
+        return env.getProperty("llm.limit." + provider + "." + name, env.getProperty("llm.limit." + name, fallback));
+    }
+
+    /** @throws LlmOverloadedException if no slot frees up within the queue and wait bounds */
+    Permit acquire(Priority priority) {
+        if (!enabled) return new Permit(0);
+        lock.lock();
+        try {
+            if (inFlight < (int) limit && high.isEmpty() && (priority == Priority.HIGH || low.isEmpty())) {
+                return new Permit(++inFlight);
+            }
+            if (queued() >= queue) {
+                if (priority == Priority.LOW || low.isEmpty()) throw reject(priority);
+                Waiter pushedOut = low.removeLast();
+                pushedOut.evicted = true;
+                pushedOut.admitted.signal();
+            }
+            Waiter w = new Waiter(lock.newCondition());
+            (priority == Priority.HIGH ? high : low).addLast(w);
+            long nanos = maxWaitNanos;
+            try {
+                while (!w.granted && !w.evicted && nanos > 0) nanos = w.admitted.awaitNanos(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (w.granted) release(new Permit(inFlight), Outcome.IGNORED);
+                else (priority == Priority.HIGH ? high : low).remove(w);
+                throw new IllegalStateException("Interrupted waiting for a " + provider + " slot", e);
+            }
+            if (w.granted) return new Permit(inFlight);
+            if (!w.evicted) (priority == Priority.HIGH ? high : low).remove(w);
+            throw reject(priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Permit permit, Outcome outcome) {
+        if (!enabled) return;
+        lock.lock();
+        try {
+            inFlight--;
+            if (outcome == Outcome.SUCCESS) adjust(System.nanoTime() - permit.start, permit.inFlightAtStart);
+            else if (outcome == Outcome.FAILURE) limit = Math.max(min, limit * backoff);
+            while (inFlight < (int) limit) {
+                Waiter next = high.isEmpty() ? low.pollFirst() : high.pollFirst();
+                if (next == null) break;
+                next.granted = true;
+                inFlight++;
+                next.admitted.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust(long sampleNanos, int inFlightAtStart) {
+        longNanos = Double.isNaN(longNanos) ? sampleNanos : longNanos + (sampleNanos - longNanos) / LONG_WINDOW;
+        double gradient = Math.clamp(tolerance * longNanos / Math.max(1, sampleNanos), 0.5, 1.0);
+        double next = limit * gradient + Math.sqrt(limit);
+        if (next > limit && inFlightAtStart < limit / 2) return;   // not using the limit: no evidence it could grow
+        limit = Math.clamp(limit * (1 - SMOOTHING) + next * SMOOTHING, min, max);
+    }
+
+    private LlmOverloadedException reject(Priority priority) {
+        rejected.get(priority).increment();
+        // about one call's duration: by then a slot has most likely turned over
+        long retryAfter = Double.isNaN(longNanos) ? 1 : Math.clamp(Math.round(longNanos / 1e9), 1, 60);
+        return new LlmOverloadedException(provider, retryAfter);
+    }
+
+    double limit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int queued() {
+        lock.lock();
+        try {
+            return high.size() + low.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.apple.salesassistant.chat.llm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+/**
+ * Text embeddings for KB vector retrieval. {@code kb.vector.embedder} names an LLM provider key
+ * (e.g. {@code ollama}) or {@code hashing} for the local {@link HashingEmbedder}.
+ */
+@Slf4j
+@Service
+public class EmbeddingService {
+
+    private final String key;
+    private final LlmProviderSelector llmProviderSelector;
+    private final HashingEmbedder hashing;
+    private volatile LlmProvider provider;
+
+    public EmbeddingService(LlmProviderSelector llmProviderSelector, org.springframework.core.env.Environment env) {
+        this.llmProviderSelector = llmProviderSelector;
+        this.key = env.getProperty("kb.vector.embedder", "ollama");
+        this.hashing = new HashingEmbedder(Integer.parseInt(env.getProperty("kb.vector.dimensions", "256")));
+    }
+
+    public float[] embed(String text) {
+        if ("hashing".equals(key)) return hashing.embed(text);
+        LlmProvider p = provider;
+        if (p == null) provider = p = llmProviderSelector.select(Optional.of(key));
+        return p.embed(text);
+    }
+
+    public String key() {
+        return key;
+    }
+}
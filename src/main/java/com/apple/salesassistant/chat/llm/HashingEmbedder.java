@@ -0,0 +1,35 @@
+package com.apple.salesassistant.chat.llm;
+
+import java.util.Locale;
+
+/**
+ * Deterministic, dependency-free embedder: each lowercase token is hashed into one of {@code dimensions}
+ * buckets with a hashed sign (feature hashing). No semantics beyond shared tokens, but stable across runs,
+ * which makes it suitable for tests and offline setups without an embedding model.
+ */
+public class HashingEmbedder {
+
+    private final int dimensions;
+
+    public HashingEmbedder(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    public float[] embed(String text) {
+        float[] v = new float[dimensions];
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^a-z0-9+.%]+")) {
+            if (token.length() < 2) continue;
+            int h = mix(token.hashCode());
+            v[Math.floorMod(h, dimensions)] += (h & 0x4000_0000) == 0 ? 1f : -1f;
+        }
+        return v;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,133 @@
+package com.apple.salesassistant.chat.llm;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Model-level meters for each provider call, tagged {@code provider}, {@code model} and {@code outcome}
+ * (success; error; cancelled: whoever received the stream stopped it, e.g. the client went away or a hedge lost):
+ * <ul>
+ *   <li>{@code llm.ttft}: request start to the first token (to the whole answer when not streamed)</li>
+ *   <li>{@code llm.generation}: request start to the last token</li>
+ *   <li>{@code llm.tokens.prompt}, {@code llm.tokens.completion}: token counts as reported by the provider</li>
+ *   <li>{@code llm.tokens.cached}: prompt tokens the provider served from its prompt cache, where it reports them;
+ *       {@code sum(llm_tokens_cached_tokens_sum) / sum(llm_tokens_prompt_tokens_sum)} is the cache hit ratio</li>
+ *   <li>{@code llm.tokens.per.second}: completion tokens over decode time (the provider's when it reports one)</li>
+ * </ul>
+ * Timers and summaries publish percentile histograms, so Prometheus can alert on e.g. p95 TTFT per model.
+ */
+@Component
+public class LlmMetrics {
+
+    private final MeterRegistry meters;
+
+    public LlmMetrics(MeterRegistry meters) {
+        this.meters = meters;
+    }
+
+    public Call start(String provider, String model) {
+        return new Call(provider, model);
+    }
+
+    /** One provider call; finish it with {@link #success} or {@link #failure}. */
+    public final class Call {
+        private final String provider;
+        private final String model;
+        private final long start = System.nanoTime();
+        private long firstToken = -1;
+        private int deltas;
+        private long promptTokens = -1;
+        private long completionTokens = -1;
+        private long cachedTokens = -1;
+        private long decodeNanos = -1;
+        private RuntimeException downstream;
+
+        private Call(String provider, String model) {
+            this.provider = provider;
+            this.model = model;
+        }
+
+        /** Wraps the stream receiver: notes the first token and tells the receiver's failures from the provider's. */
+        public Consumer<String> observe(Consumer<String> onDelta) {
+            return delta -> {
+                if (deltas++ == 0) firstToken = System.nanoTime();
+                try {
+                    onDelta.accept(delta);
+                } catch (RuntimeException e) {
+                    downstream = e;
+                    throw e;
+                }
+            };
+        }
+
+        /** Token counts reported by the provider; negative when it did not report one. */
+        public void usage(long prompt, long completion) {
+            this.promptTokens = prompt;
+            this.completionTokens = completion;
+        }
+
+        /** Prompt tokens the provider reports it read from its prompt cache (OpenAI {@code cached_tokens}). */
+        public void cachedTokens(long cached) {
+            this.cachedTokens = cached;
+        }
+
+        /** Time the provider reports it spent generating the completion (Ollama {@code eval_duration}). */
+        public void decodeNanos(long nanos) {
+            this.decodeNanos = nanos;
+        }
+
+        public void success() {
+            record("success");
+        }
+
+        public void failure(Throwable e) {
+            boolean cancelled = Thread.currentThread().isInterrupted();
+            for (Throwable t = e; t != null && !cancelled; t = t.getCause()) cancelled = t == downstream;
+            record(cancelled ? "cancelled" : "error");
+        }
+
+        private void record(String outcome) {
+            long end = System.nanoTime();
+            Tags tags = Tags.of("provider", provider, "model", String.valueOf(model), "outcome", outcome);
+            long ttft = (firstToken > 0 ? firstToken : end) - start;
+            if (firstToken > 0 || outcome.equals("success")) {
+                timer("llm.ttft", "Time to the first token", tags).record(ttft, TimeUnit.NANOSECONDS);
+            }
+            timer("llm.generation", "Time to the last token", tags).record(end - start, TimeUnit.NANOSECONDS);
+            if (promptTokens >= 0) summary("llm.tokens.prompt", "Prompt tokens per call", "tokens", tags).record(promptTokens);
+            if (cachedTokens >= 0) {
+                summary("llm.tokens.cached", "Prompt tokens served from the provider's prompt cache", "tokens", tags)
+                        .record(cachedTokens);
+            }
+            if (completionTokens < 0) return;
+            summary("llm.tokens.completion", "Completion tokens per call", "tokens", tags).record(completionTokens);
+            // streamed: from the first token on; a single delta or none says nothing about decode speed
+            long decode = decodeNanos > 0 ? decodeNanos : deltas > 1 ? end - firstToken : end - start;
+            if (completionTokens > 0 && decode > 0) {
+                summary("llm.tokens.per.second", "Completion tokens per second of decoding", "tokens/s", tags)
+                        .record(completionTokens / (decode / 1e9));
+            }
+        }
+    }
+
+    private Timer timer(String name, String description, Tags tags) {
+        return Timer.builder(name).description(description).tags(tags)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofMinutes(5))
+                .register(meters);
+    }
+
+    private DistributionSummary summary(String name, String description, String unit, Tags tags) {
+        return DistributionSummary.builder(name).description(description).baseUnit(unit).tags(tags)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(131072.0)
+                .register(meters);
+    }
+}
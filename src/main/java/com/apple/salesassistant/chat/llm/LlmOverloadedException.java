@@ -0,0 +1,27 @@
+package com.apple.salesassistant.chat.llm;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/** A provider is at its concurrency limit; answered with 429 and {@code Retry-After}. */
+public class LlmOverloadedException extends ResponseStatusException {
+
+    private final long retryAfterSeconds;
+
+    public LlmOverloadedException(String provider, long retryAfterSeconds) {
+        super(HttpStatus.TOO_MANY_REQUESTS, "LLM provider %s is busy, retry in %ds".formatted(provider, retryAfterSeconds));
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return headers;
+    }
+}
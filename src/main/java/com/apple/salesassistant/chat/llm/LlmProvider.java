@@ -2,6 +2,7 @@ package com.apple.salesassistant.chat.llm;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface LlmProvider {
 
@@ -14,8 +15,35 @@ public interface LlmProvider {
      */
     String chat(List<Map<String, String>> messages);
 
+    /**
+     * Same as {@link #chat} but hands each piece of assistant text to {@code onDelta} as the provider
+     * generates it. Blocks until the completion ends. An exception thrown by {@code onDelta} aborts the
+     * request (e.g. the client went away).
+     * @return the full assistant text
+     */
+    default String stream(List<Map<String, String>> messages, Consumer<String> onDelta) {
+        String text = chat(messages);
+        onDelta.accept(text);
+        return text;
+    }
+
+    /**
+     * Embed text into a dense vector for KB retrieval.
+     * @throws UnsupportedOperationException if the provider has no embeddings endpoint configured
+     */
+    default float[] embed(String text) {
+        throw new UnsupportedOperationException(key() + " does not support embeddings");
+    }
+
     /**
      * Unique provider key, e.g. "ollama" or "bedrock".
      */
     String key();
+
+    /**
+     * Model the provider sends requests to; part of cache keys, since answers differ per model.
+     */
+    default String model() {
+        return key();
+    }
 }
\ No newline at end of file
@@ -1,27 +1,147 @@
 package com.apple.salesassistant.chat.llm;
 
 import com.apple.salesassistant.configuration.LlmRuntimeProps;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * Picks the provider for a call. With {@code llm.routing.mode: fixed} (default) that is always {@code llm.provider}.
+ * With {@code latency} a call goes to the routed provider ({@code llm.routing.providers}) with the lowest latency
+ * EWMA whose circuit is not open, and
+ * <ul>
+ *   <li>if no answer text arrived within the {@code llm.routing.hedge.percentile} of its recent latencies, the same
+ *       call is also sent to the next provider and whichever produces text first is used, the other cancelled</li>
+ *   <li>if it fails before producing text, the next provider is tried</li>
+ * </ul>
+ * A provider not measured for {@code llm.routing.stale-ms} is tried again so it can win its place back.
+ * Meters: {@code llm.routing.decisions} tagged {@code provider}, {@code role} (primary, hedge, fallback);
+ * {@code llm.routing.hedges} tagged {@code provider} (the winner), {@code result} (won: the hedge answered first);
+ * gauges {@code llm.routing.latency.ewma}, {@code llm.routing.error.rate} and {@code llm.routing.circuit}
+ * (0 closed, 1 open, 2 half-open) per provider.
+ * <p>
+ * In both modes every provider call holds a slot of that provider's {@link ConcurrencyLimiter}; a call it cannot
+ * admit fails with {@link LlmOverloadedException}, or in latency mode moves on to the next provider.
+ */
 @Slf4j
 @Component
 public class LlmProviderSelector {
 
+    /** One provider request; streamed text goes to {@code onDelta}, the full text is returned. */
+    @FunctionalInterface
+    public interface Call {
+        String apply(LlmProvider provider, Consumer<String> onDelta);
+    }
+
     private final Map<String, LlmProvider> registry;
     private final String defaultKey;
+    private final boolean latencyRouting;
+    private final Map<String, ProviderHealth> health = new LinkedHashMap<>();
+    /** Counters by provider, then role or hedge result; registered up front, only incremented per call. */
+    private final Map<String, Map<String, Counter>> decisions = new HashMap<>();
+    private final Map<String, Map<String, Counter>> hedges = new HashMap<>();
+    private final Map<String, ConcurrencyLimiter> limiters;
+    private final boolean hedge;
+    private final double hedgePercentile;
+    private final long hedgeMinMs;
+    private final long hedgeMaxMs;
+    private final ExecutorService attempts;
+    private final MeterRegistry meters;
 
-    public LlmProviderSelector(List<LlmProvider> providers, LlmRuntimeProps props) {
+    public LlmProviderSelector(List<LlmProvider> providers, LlmRuntimeProps props, Environment env, MeterRegistry meters) {
         this.registry = providers.stream().collect(Collectors.toUnmodifiableMap(
                 LlmProvider::key, Function.identity()
         ));
         this.defaultKey = props.provider();
+        this.meters = meters;
+        this.limiters = registry.keySet().stream().collect(Collectors.toUnmodifiableMap(
+                Function.identity(), key -> new ConcurrencyLimiter(key, env, meters)
+        ));
+        this.latencyRouting = "latency".equalsIgnoreCase(env.getProperty("llm.routing.mode", "fixed"));
+        this.hedge = Boolean.parseBoolean(env.getProperty("llm.routing.hedge.enabled", "true"));
+        this.hedgePercentile = Double.parseDouble(env.getProperty("llm.routing.hedge.percentile", "0.95"));
+        this.hedgeMinMs = Long.parseLong(env.getProperty("llm.routing.hedge.min-delay-ms", "500"));
+        this.hedgeMaxMs = Long.parseLong(env.getProperty("llm.routing.hedge.max-delay-ms", "10000"));
+        if (!latencyRouting) {
+            this.attempts = null;
+            return;
+        }
+        double alpha = Double.parseDouble(env.getProperty("llm.routing.ewma-alpha", "0.2"));
+        double failureRate = Double.parseDouble(env.getProperty("llm.routing.circuit.failure-rate", "0.5"));
+        int minCalls = Integer.parseInt(env.getProperty("llm.routing.circuit.min-calls", "10"));
+        long openMs = Long.parseLong(env.getProperty("llm.routing.circuit.open-ms", "30000"));
+        long staleMs = Long.parseLong(env.getProperty("llm.routing.stale-ms", "30000"));
+        for (String key : routed(env.getProperty("llm.routing.providers", ""))) {
+            ProviderHealth h = new ProviderHealth(alpha, failureRate, minCalls, openMs, staleMs, System::nanoTime);
+            health.put(key, h);
+            Gauge.builder("llm.routing.latency.ewma", h, ProviderHealth::latencyEwma).baseUnit("milliseconds")
+                    .description("EWMA of time to first answer text").tag("provider", key).register(meters);
+            Gauge.builder("llm.routing.error.rate", h, ProviderHealth::errorRate)
+                    .description("EWMA of failed calls").tag("provider", key).register(meters);
+            Gauge.builder("llm.routing.circuit", h, x -> x.circuit().ordinal())
+                    .description("Circuit state: 0 closed, 1 open, 2 half-open").tag("provider", key).register(meters);
+            decisions.put(key, counters(key, "llm.routing.decisions", "Provider calls started by the router",
+                    "role", "primary", "hedge", "fallback"));
+            hedges.put(key, counters(key, "llm.routing.hedges", "Hedged calls by who answered first",
+                    "result", "won", "lost"));
+        }
+        this.attempts = Boolean.parseBoolean(env.getProperty("spring.threads.virtual.enabled", "false"))
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("llm-route-", 0).factory())
+                : Executors.newCachedThreadPool(Thread.ofPlatform().daemon().name("llm-route-", 0).factory());
+        log.info("LLM routing by latency over {}", health.keySet());
+    }
+
+    private Map<String, Counter> counters(String provider, String name, String description, String tag, String... values) {
+        Map<String, Counter> counters = new HashMap<>();
+        for (String v : values) {
+            counters.put(v, Counter.builder(name).description(description)
+                    .tag("provider", provider).tag(tag, v).register(meters));
+        }
+        return Map.copyOf(counters);
+    }
+
+    /** Configured routed providers that exist, or the default one followed by all others. */
+    private List<String> routed(String configured) {
+        if (configured.isBlank()) {
+            List<String> keys = new ArrayList<>(List.of(defaultKey));
+            registry.keySet().stream().sorted().filter(k -> !k.equals(defaultKey)).forEach(keys::add);
+            return keys;
+        }
+        List<String> keys = new ArrayList<>();
+        for (String k : configured.split(",")) {
+            k = k.trim();
+            if (registry.containsKey(k) && !keys.contains(k)) keys.add(k);
+            else if (!k.isEmpty()) log.warn("llm.routing.providers: ignoring unknown or repeated provider '{}'", k);
+        }
+        if (keys.isEmpty()) throw new IllegalArgumentException("llm.routing.providers names no known provider: " + configured);
+        return keys;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (attempts != null) attempts.shutdownNow();
+    }
+
+    public String defaultKey() {
+        return defaultKey;
+    }
+
+    /** Model of the default provider, looked up quietly (no selection log line per request). */
+    public String defaultModel() {
+        LlmProvider p = registry.get(defaultKey);
+        if (p == null) throw new IllegalArgumentException("Unknown LLM provider: " + defaultKey);
+        return p.model();
     }
 
     public LlmProvider select(Optional<String> overrideKey) {
@@ -31,4 +151,233 @@ public class LlmProviderSelector {
         log.info("Selected LLM provider: %s".formatted(p.key()));
         return p;
     }
+
+    /**
+     * Runs {@code call} on the provider(s) the routing mode picks.
+     * @param onDelta receives the streamed text of the provider that is used; null when nobody streams
+     * @return the full answer text
+     */
+    public String call(Consumer<String> onDelta, Call call) {
+        Consumer<String> sink = onDelta != null ? onDelta : delta -> {};
+        ConcurrencyLimiter.Priority priority = ConcurrencyLimiter.Priority.current();
+        if (latencyRouting) return new Race(candidates(), sink, call, priority).run();
+
+        LlmProvider p = select(Optional.empty());
+        ConcurrencyLimiter.Permit permit = limiters.get(p.key()).acquire(priority);
+        Guarded out = new Guarded(sink);
+        try {
+            String text = call.apply(p, out);
+            permit.release(ConcurrencyLimiter.Outcome.SUCCESS);
+            return text;
+        } catch (RuntimeException e) {
+            permit.release(e == out.thrown ? ConcurrencyLimiter.Outcome.IGNORED : ConcurrencyLimiter.Outcome.FAILURE);
+            throw e;
+        }
+    }
+
+    /** Forwards deltas and remembers what the receiver threw: the caller going away is not a provider failure. */
+    private static final class Guarded implements Consumer<String> {
+        private final Consumer<String> delegate;
+        private volatile RuntimeException thrown;
+
+        Guarded(Consumer<String> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void accept(String delta) {
+            try {
+                delegate.accept(delta);
+            } catch (RuntimeException e) {
+                thrown = e;
+                throw e;
+            }
+        }
+    }
+
+    /** Routed providers that would admit a call, fastest first; equal ones (e.g. untried) in configured order. */
+    List<LlmProvider> candidates() {
+        return health.entrySet().stream()
+                .filter(e -> e.getValue().available())
+                .sorted(Comparator.comparingDouble(e -> e.getValue().routingLatency()))
+                .map(e -> registry.get(e.getKey()))
+                .toList();
+    }
+
+    private long hedgeDelayMs(LlmProvider primary) {
+        long p = health.get(primary.key()).percentile(hedgePercentile);
+        return p < 0 ? hedgeMaxMs : Math.clamp(p, hedgeMinMs, hedgeMaxMs);
+    }
+
+    /**
+     * One routed call: attempts run on {@link #attempts} and the first to produce text wins; the caller waits for
+     * the result. State changes under a lock, not synchronized, as attempts may run on virtual threads.
+     */
+    private final class Race {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final Deque<LlmProvider> untried;
+        private final Guarded onDelta;
+        private final Call call;
+        private final ConcurrencyLimiter.Priority priority;
+        private final List<Attempt> running = new ArrayList<>();
+        private final List<RuntimeException> failures = new ArrayList<>();
+        private Attempt winner;
+        private boolean hedged;
+
+        Race(List<LlmProvider> candidates, Consumer<String> onDelta, Call call, ConcurrencyLimiter.Priority priority) {
+            this.untried = new ArrayDeque<>(candidates);
+            this.onDelta = new Guarded(onDelta);
+            this.call = call;
+            this.priority = priority;
+        }
+
+        String run() {
+            LlmProvider primary = untried.peekFirst();
+            if (!start("primary")) {
+                throw new IllegalStateException("No LLM provider available, circuits open for " + health.keySet());
+            }
+            try {
+                if (hedge) {
+                    try {
+                        return result.get(hedgeDelayMs(primary), TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        start("hedge");
+                    }
+                }
+                return result.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException r ? r : new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelAll(null);
+                throw new IllegalStateException("Interrupted waiting for the LLM", e);
+            }
+        }
+
+        /** Starts the next untried provider that admits a call, unless the race is decided. */
+        private boolean start(String role) {
+            lock.lock();
+            try {
+                while (winner == null && !result.isDone() && !untried.isEmpty()) {
+                    LlmProvider p = untried.removeFirst();
+                    if (!health.get(p.key()).tryAcquire()) continue;
+                    Attempt a = new Attempt(p, role);
+                    running.add(a);
+                    hedged |= role.equals("hedge");
+                    decisions.get(p.key()).get(role).increment();
+                    if (!role.equals("primary")) log.info("LLM {} to {}", role, p.key());
+                    a.future = attempts.submit(a);
+                    return true;
+                }
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** First one to produce text wins; the others are cancelled. */
+        private boolean claim(Attempt a) {
+            lock.lock();
+            try {
+                if (winner == null && !a.cancelled) {
+                    winner = a;
+                    cancelAll(a);
+                    if (hedged) {
+                        hedges.get(a.provider.key()).get(a.role.equals("hedge") ? "won" : "lost").increment();
+                    }
+                }
+                return winner == a;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void cancelAll(Attempt except) {
+            lock.lock();
+            try {
+                for (Attempt other : running) {
+                    if (other == except) continue;
+                    other.cancelled = true;
+                    if (other.future != null) other.future.cancel(true);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void finished(Attempt a, String text, RuntimeException error) {
+            lock.lock();
+            try {
+                running.remove(a);
+                if (error == null) {
+                    if (winner == a) result.complete(text);
+                    return;
+                }
+                if (winner == a || result.isDone()) {   // text already went out: nothing to fall back to
+                    result.completeExceptionally(error);
+                    return;
+                }
+                failures.add(error);
+                if (running.isEmpty() && !start("fallback")) {
+                    RuntimeException first = failures.getFirst();
+                    failures.stream().skip(1).forEach(first::addSuppressed);
+                    result.completeExceptionally(first);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private final class Attempt implements Runnable {
+            final LlmProvider provider;
+            final String role;
+            final long start = System.nanoTime();
+            volatile boolean cancelled;
+            Future<?> future;
+            private long firstTextMs = -1;
+
+            Attempt(LlmProvider provider, String role) {
+                this.provider = provider;
+                this.role = role;
+            }
+
+            @Override
+            public void run() {
+                ProviderHealth h = health.get(provider.key());
+                ConcurrencyLimiter.Permit permit;
+                try {
+                    permit = limiters.get(provider.key()).acquire(priority);
+                } catch (RuntimeException e) {   // at its limit: not unhealthy, but the next provider may have room
+                    h.abandon();
+                    finished(this, null, e);
+                    return;
+                }
+                String text;
+                try {
+                    text = call.apply(provider, delta -> {
+                        if (firstTextMs < 0) firstTextMs = elapsedMs();
+                        if (!claim(this)) throw new CancellationException(provider.key() + " lost the race");
+                        onDelta.accept(delta);
+                    });
+                } catch (RuntimeException e) {
+                    if (e == onDelta.thrown) h.success(firstTextMs);   // the caller went away, not the provider's fault
+                    else if (cancelled) h.abandon();
+                    else h.failure();
+                    permit.release(e == onDelta.thrown || cancelled
+                            ? ConcurrencyLimiter.Outcome.IGNORED : ConcurrencyLimiter.Outcome.FAILURE);
+                    finished(this, null, e);
+                    return;
+                }
+                permit.release(ConcurrencyLimiter.Outcome.SUCCESS);
+                h.success(firstTextMs < 0 ? elapsedMs() : firstTextMs);   // non-streaming: the whole answer
+                claim(this);
+                finished(this, text, null);
+            }
+
+            private long elapsedMs() {
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            }
+        }
+    }
 }
@@ -1,15 +1,15 @@
 package com.apple.salesassistant.chat.llm;
 
 import com.apple.salesassistant.chat.kb.KbRetriever;
-import com.apple.salesassistant.chat.kb.KnowledgeBase;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
@@ -17,32 +17,71 @@ public class LlmService {
     @Autowired
     private LlmProviderSelector llmProviderSelector;
 
-    @Autowired
-    private KnowledgeBase knowledgeBase;
-
     @Autowired
     private RestTemplate restTemplate;
 
     @Autowired
     private SystemPromptLoader systemPromptLoader;
 
+    @Autowired
+    private SingleFlight singleFlight;
+
     @Autowired
     private KbRetriever kbRetriever;
 
-    @SuppressWarnings("unchecked")
-    public String chat(String userMessage) {
+    /**
+     * @param instructions per-request instructions appended to the system prompt (nullable); keep what varies
+     *                     least first, so requests share the longest prefix for provider-side prompt caching
+     */
+    public String chat(String instructions, String userMessage) {
 
-        String systemPrompt = systemPromptLoader.load();
+        List<Map<String, String>> messages = messages(instructions, userMessage);
 
-        List<Map<String, String>> messages = List.of(
-                Map.of("role", "system", "content", systemPrompt),
+        return singleFlight.run(fingerprint(messages), null,
+                onDelta -> llmProviderSelector.call(null, (provider, delta) -> provider.chat(messages)));
+
+    }
+
+    /** Streaming variant of {@link #chat}: deltas go to {@code onDelta}, the full text is returned at the end. */
+    public String stream(String instructions, String userMessage, Consumer<String> onDelta) {
+        List<Map<String, String>> messages = messages(instructions, userMessage);
+        return singleFlight.run(fingerprint(messages), onDelta,
+                publish -> llmProviderSelector.call(publish, (provider, delta) -> provider.stream(messages, delta)));
+    }
+
+    /** Identical provider, model and messages: concurrent calls with this key share one (routed) request. */
+    private String fingerprint(List<Map<String, String>> messages) {
+        List<String> parts = new ArrayList<>(List.of(llmProviderSelector.defaultKey(), llmProviderSelector.defaultModel()));
+        for (Map<String, String> m : messages) {
+            parts.add(m.get("role"));
+            parts.add(m.get("content"));
+        }
+        return SingleFlight.fingerprint(parts.toArray(String[]::new));
+    }
+
+    /** The static system prompt leads, identical across all requests; the instructions follow it. */
+    private List<Map<String, String>> messages(String instructions, String userMessage) {
+        String system = systemPromptLoader.load();
+        if (instructions != null && !instructions.isBlank()) system = system + "\n\n" + instructions;
+        return List.of(
+                Map.of("role", "system", "content", system),
                 Map.of("role", "user", "content", userMessage)
         );
+    }
 
-        LlmProvider llmProvider = llmProviderSelector.select(Optional.empty());
-        log.info("Using LLM provider: %s".formatted(llmProvider.key()));
-        return llmProvider.chat(messages);
+    /** Key of the provider {@link #chat} will use, for per-provider settings such as the context budget. */
+    public String providerKey() {
+        return llmProviderSelector.defaultKey();
+    }
+
+    /** Model of the provider {@link #chat} will use. */
+    public String model() {
+        return llmProviderSelector.defaultModel();
+    }
 
+    /** System instructions {@link #chat} sends ahead of the user message. */
+    public String systemPrompt() {
+        return systemPromptLoader.load();
     }
 
 }
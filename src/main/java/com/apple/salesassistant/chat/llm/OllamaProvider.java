@@ -2,43 +2,52 @@ package com.apple.salesassistant.chat.llm;
 
 import com.apple.salesassistant.configuration.OllamaConfig;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.*;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Slf4j
 @Component
 public class OllamaProvider implements LlmProvider {
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     @Autowired
     private OllamaConfig ollamaConfig;
 
     @Autowired
+    @Qualifier("ollamaRestTemplate")
     private RestTemplate restTemplate;
 
+    @Autowired
+    private LlmMetrics metrics;
+
     @Override
     public String chat(List<Map<String, String>> messages) {
-        Map<String, Object> body = Map.of(
-                "model", ollamaConfig.model(),
-                "messages", messages,
-                "temperature", 0.2
-        );
+        Map<String, Object> body = body(messages, false);
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.setAccept(java.util.List.of(MediaType.APPLICATION_JSON));
 
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
 
+        LlmMetrics.Call call = metrics.start(key(), ollamaConfig.model());
         try {
             ResponseEntity<String> response = restTemplate.exchange(
                     ollamaConfig.baseUrl() + "/api/chat",
@@ -47,49 +56,146 @@ public class OllamaProvider implements LlmProvider {
                     String.class
             );
             log.info("Ollama response status: " + response.getStatusCode());
-            return parseResponse(response);
+            String content = parseResponse(response, call);
+            call.success();
+            return content;
         }
         catch (Exception e) {
+            call.failure(e);
             throw new RuntimeException("Failed to call Ollama: " + e.getMessage(), e);
         }
     }
 
-    private String parseResponse(ResponseEntity<String> resp) throws JsonProcessingException {
+    /** Sends {@code stream:true} and forwards each NDJSON line's content as it is read off the socket. */
+    @Override
+    public String stream(List<Map<String, String>> messages, Consumer<String> onDelta) {
+        Map<String, Object> body = body(messages, true);
+        StringBuilder result = new StringBuilder();
+        LlmMetrics.Call call = metrics.start(key(), ollamaConfig.model());
+        Consumer<String> observed = call.observe(onDelta);
+        try {
+            restTemplate.execute(
+                    ollamaConfig.baseUrl() + "/api/chat",
+                    HttpMethod.POST,
+                    request -> {
+                        request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                        request.getHeaders().setAccept(List.of(MediaType.APPLICATION_NDJSON));
+                        MAPPER.writeValue(request.getBody(), body);
+                    },
+                    response -> {
+                        try (BufferedReader reader = new BufferedReader(
+                                new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+                            usage(call, readNdjson(reader, delta -> {
+                                result.append(delta);
+                                observed.accept(delta);
+                            }));
+                        }
+                        return null;
+                    });
+            call.success();
+            return result.toString();
+        }
+        catch (Exception e) {
+            call.failure(e);
+            throw new RuntimeException("Failed to stream from Ollama: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sampling settings go in {@code options}. The same {@code keep_alive} and {@code num_ctx} on every request keep
+     * the model loaded with its KV cache, so the prompt prefix shared with the previous request is not evaluated again.
+     */
+    private Map<String, Object> body(List<Map<String, String>> messages, boolean stream) {
+        Map<String, Object> options = new LinkedHashMap<>();
+        options.put("temperature", 0.2);
+        if (ollamaConfig.numCtx() != null) options.put("num_ctx", ollamaConfig.numCtx());
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("model", ollamaConfig.model());
+        body.put("messages", messages);
+        body.put("stream", stream);
+        body.put("options", options);
+        if (ollamaConfig.keepAlive() != null) body.put("keep_alive", ollamaConfig.keepAlive());
+        return body;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        String model = ollamaConfig.embeddingModel() != null ? ollamaConfig.embeddingModel() : ollamaConfig.model();
+        Map<String, Object> body = Map.of(
+                "model", model,
+                "prompt", text
+        );
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        try {
+            ResponseEntity<String> response = restTemplate.exchange(
+                    ollamaConfig.baseUrl() + "/api/embeddings",
+                    HttpMethod.POST,
+                    new HttpEntity<>(body, headers),
+                    String.class
+            );
+            var embedding = new ObjectMapper().readTree(response.getBody()).path("embedding");
+            if (!embedding.isArray() || embedding.isEmpty()) {
+                throw new IllegalStateException("Unexpected embeddings response: " + response.getBody());
+            }
+            float[] v = new float[embedding.size()];
+            for (int i = 0; i < v.length; i++) v[i] = (float) embedding.get(i).asDouble();
+            return v;
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Failed to call Ollama embeddings: " + e.getMessage(), e);
+        }
+    }
+
+    private String parseResponse(ResponseEntity<String> resp, LlmMetrics.Call call) throws JsonProcessingException {
         String contentType = Optional.ofNullable(resp.getHeaders().getContentType())
                 .map(MediaType::toString).orElse("");
 
         String rawBody = resp.getBody();
         if (contentType.contains("application/x-ndjson")) {
-            return parseNdjsonResponse(rawBody);
+            return parseNdjsonResponse(rawBody, call);
         } else {
-            return parseJsonResponse(rawBody);
+            return parseJsonResponse(rawBody, call);
         }
     }
 
-    private String parseNdjsonResponse(String rawBody) {
+    private String parseNdjsonResponse(String rawBody, LlmMetrics.Call call) {
         StringBuilder result = new StringBuilder();
-        ObjectMapper mapper = new ObjectMapper();
-
         try (BufferedReader reader = new BufferedReader(new StringReader(rawBody))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isBlank()) continue;
-
-                var node = mapper.readTree(line);
-                String content = node.path("message").path("content").asText(null);
-                if (content != null) result.append(content);
-
-                if (node.path("done").asBoolean(false)) break;
-            }
+            usage(call, readNdjson(reader, result::append));
         } catch (IOException e) {
             throw new RuntimeException("Error parsing NDJSON response", e);
         }
         return result.toString();
     }
 
-    private String parseJsonResponse(String rawBody) throws JsonProcessingException {
+    /** One JSON object per line; stops at the line marked {@code done} and returns it (null if there was none). */
+    private static JsonNode readNdjson(BufferedReader reader, Consumer<String> onContent) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) continue;
+
+            var node = MAPPER.readTree(line);
+            String content = node.path("message").path("content").asText(null);
+            if (content != null && !content.isEmpty()) onContent.accept(content);
+
+            if (node.path("done").asBoolean(false)) return node;
+        }
+        return null;
+    }
+
+    /** The final response carries the counts: {@code prompt_eval_count}, {@code eval_count}, {@code eval_duration} (ns). */
+    private static void usage(LlmMetrics.Call call, JsonNode done) {
+        if (done == null) return;
+        call.usage(done.path("prompt_eval_count").asLong(-1), done.path("eval_count").asLong(-1));
+        call.decodeNanos(done.path("eval_duration").asLong(-1));
+    }
+
+    private String parseJsonResponse(String rawBody, LlmMetrics.Call call) throws JsonProcessingException {
         ObjectMapper mapper = new ObjectMapper();
         var root = mapper.readTree(rawBody);
+        usage(call, root);
 
         String content = root.path("message").path("content").asText(null);
         if (content != null) return content;
@@ -102,6 +208,11 @@ public class OllamaProvider implements LlmProvider {
         throw new IllegalStateException("Unexpected JSON response: " + rawBody);
     }
 
+    @Override
+    public String model() {
+        return ollamaConfig.model();
+    }
+
     @Override
     public String key() {
         return "ollama";
@@ -1,26 +1,39 @@
 package com.apple.salesassistant.chat.llm;
 
 import com.apple.salesassistant.configuration.OpenAiConfig;
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.*;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Slf4j
-@AllArgsConstructor
 @Component
 public class OpenAiProvider implements  LlmProvider {
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private final OpenAiConfig openAiConfig;
 
-    @Autowired
-    private RestTemplate restTemplate;
+    private final RestTemplate restTemplate;
+
+    private final LlmMetrics metrics;
+
+    public OpenAiProvider(OpenAiConfig openAiConfig, @Qualifier("openAiRestTemplate") RestTemplate restTemplate,
+                          LlmMetrics metrics) {
+        this.openAiConfig = openAiConfig;
+        this.restTemplate = restTemplate;
+        this.metrics = metrics;
+    }
 
     @Override
     public String chat(List<Map<String, String>> messages) {
@@ -36,6 +49,7 @@ public class OpenAiProvider implements  LlmProvider {
                 "temperature", 0.2
         );
 
+        LlmMetrics.Call call = metrics.start(key(), openAiConfig.model());
         try {
             ResponseEntity<Map> resp = restTemplate.exchange(
                     normalize(openAiConfig.baseUrl()) + "/v1/chat/completions",
@@ -46,6 +60,12 @@ public class OpenAiProvider implements  LlmProvider {
             Map<String, Object> m = resp.getBody();
             if (m == null) throw new IllegalStateException("Empty OpenAI response");
             log.info("OpenAI api response successful");
+            if (m.get("usage") instanceof Map<?,?> usage) {
+                call.usage(count(usage.get("prompt_tokens")), count(usage.get("completion_tokens")));
+                if (usage.get("prompt_tokens_details") instanceof Map<?,?> details) {
+                    call.cachedTokens(count(details.get("cached_tokens")));
+                }
+            }
             Object choices = m.get("choices");
             if (choices instanceof List<?> list && !list.isEmpty()) {
                 Object first = list.get(0);
@@ -53,21 +73,101 @@ public class OpenAiProvider implements  LlmProvider {
                     Object msg = c.get("message");
                     if (msg instanceof Map<?,?> mm) {
                         Object content = mm.get("content");
-                        if (content != null) return content.toString();
+                        if (content != null) {
+                            call.success();
+                            return content.toString();
+                        }
                     }
                 }
             }
             throw new IllegalStateException("Unexpected OpenAI response shape: " + m.keySet());
         } catch (RestClientException ex) {
+            call.failure(ex);
+            throw new RuntimeException("OPENAI_CALL_FAILED: " + ex.getMessage(), ex);
+        } catch (RuntimeException ex) {
+            call.failure(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends {@code stream:true} and reads the server-sent events as they arrive: each {@code data:} line carries
+     * a chunk whose {@code choices[0].delta.content} is the next piece of text, {@code data: [DONE]} ends it.
+     * With {@code stream_options.include_usage} the last chunk before it has no choices, only the {@code usage}.
+     */
+    @Override
+    public String stream(List<Map<String, String>> messages, Consumer<String> onDelta) {
+        Map<String, Object> body = Map.of(
+                "model", openAiConfig.model(),
+                "messages", messages,
+                "temperature", 0.2,
+                "stream", true,
+                "stream_options", Map.of("include_usage", true)
+        );
+        StringBuilder result = new StringBuilder();
+        LlmMetrics.Call call = metrics.start(key(), openAiConfig.model());
+        Consumer<String> observed = call.observe(onDelta);
+        try {
+            restTemplate.execute(
+                    normalize(openAiConfig.baseUrl()) + "/v1/chat/completions",
+                    HttpMethod.POST,
+                    request -> {
+                        request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                        request.getHeaders().setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+                        request.getHeaders().setBearerAuth(openAiConfig.apiKey());
+                        MAPPER.writeValue(request.getBody(), body);
+                    },
+                    response -> {
+                        try (BufferedReader reader = new BufferedReader(
+                                new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+                            String line;
+                            while ((line = reader.readLine()) != null) {
+                                if (!line.startsWith("data:")) continue;
+                                String data = line.substring(5).trim();
+                                if (data.equals("[DONE]")) break;
+                                var chunk = MAPPER.readTree(data);
+                                var usage = chunk.path("usage");
+                                if (usage.isObject()) {
+                                    call.usage(usage.path("prompt_tokens").asLong(-1),
+                                            usage.path("completion_tokens").asLong(-1));
+                                    call.cachedTokens(usage.path("prompt_tokens_details").path("cached_tokens").asLong(-1));
+                                }
+                                var choices = chunk.path("choices");
+                                if (choices.isEmpty()) continue;
+                                String delta = choices.get(0).path("delta").path("content").asText(null);
+                                if (delta == null || delta.isEmpty()) continue;
+                                result.append(delta);
+                                observed.accept(delta);
+                            }
+                        }
+                        return null;
+                    });
+            log.info("OpenAI stream completed");
+            call.success();
+            return result.toString();
+        } catch (RestClientException ex) {
+            call.failure(ex);
             throw new RuntimeException("OPENAI_CALL_FAILED: " + ex.getMessage(), ex);
+        } catch (RuntimeException ex) {
+            call.failure(ex);
+            throw ex;
         }
     }
 
+    private static long count(Object tokens) {
+        return tokens instanceof Number n ? n.longValue() : -1;
+    }
+
     private static String normalize(String base) {
         if (base == null || base.isBlank()) return "https://api.openai.com";
         return base.endsWith("/") ? base.substring(0, base.length()-1) : base;
     }
 
+    @Override
+    public String model() {
+        return openAiConfig.model();
+    }
+
     @Override
     public String key() {
         return "openai";
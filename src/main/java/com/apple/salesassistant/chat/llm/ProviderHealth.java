@@ -0,0 +1,176 @@
+package com.apple.salesassistant.chat.llm;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency and error statistics of one provider, and its circuit breaker. Latency is the time to the first answer
+ * text: the first delta of a stream, the whole answer otherwise.
+ * <ul>
+ *   <li>{@code CLOSED}: calls go through; opens once the error-rate EWMA reaches the threshold (after a few calls)</li>
+ *   <li>{@code OPEN}: no calls until the cool-down is over, then one probe</li>
+ *   <li>{@code HALF_OPEN}: the probe is in flight; its success closes the circuit, its failure opens it again</li>
+ * </ul>
+ */
+final class ProviderHealth {
+
+    enum Circuit { CLOSED, OPEN, HALF_OPEN }
+
+    private static final int WINDOW = 128;          // recent latencies kept for percentiles
+    private static final int MIN_SAMPLES = 20;      // fewer: no percentile yet
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final double alpha;
+    private final double failureRate;
+    private final int minCalls;
+    private final long openNanos;
+    private final long staleNanos;
+    private final LongSupplier clock;
+
+    private final long[] latencies = new long[WINDOW];
+    private int samples;
+    private int next;
+    private double latencyEwma = Double.NaN;
+    private long lastSample;
+    private double errorEwma;
+    private long calls;
+    private Circuit circuit = Circuit.CLOSED;
+    private long openedAt;
+
+    ProviderHealth(double alpha, double failureRate, int minCalls, long openMs, long staleMs, LongSupplier clock) {
+        this.alpha = alpha;
+        this.failureRate = failureRate;
+        this.minCalls = minCalls;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.staleNanos = TimeUnit.MILLISECONDS.toNanos(staleMs);
+        this.clock = clock;
+    }
+
+    /** Whether a call could go through now; unlike {@link #tryAcquire} it does not claim the probe. */
+    boolean available() {
+        lock.lock();
+        try {
+            return circuit == Circuit.CLOSED || circuit == Circuit.OPEN && coolDownOver();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Admits a call: always when closed, as the single probe once an open circuit has cooled down. */
+    boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (circuit == Circuit.CLOSED) return true;
+            if (circuit == Circuit.OPEN && coolDownOver()) {
+                circuit = Circuit.HALF_OPEN;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void success(long latencyMs) {
+        lock.lock();
+        try {
+            calls++;
+            latencies[next] = latencyMs;
+            next = (next + 1) % WINDOW;
+            samples = Math.min(samples + 1, WINDOW);
+            latencyEwma = Double.isNaN(latencyEwma) ? latencyMs : alpha * latencyMs + (1 - alpha) * latencyEwma;
+            lastSample = clock.getAsLong();
+            errorEwma = (1 - alpha) * errorEwma;
+            if (circuit == Circuit.HALF_OPEN) {
+                circuit = Circuit.CLOSED;
+                errorEwma = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void failure() {
+        lock.lock();
+        try {
+            calls++;
+            errorEwma = alpha + (1 - alpha) * errorEwma;
+            if (circuit == Circuit.HALF_OPEN || circuit == Circuit.CLOSED && calls >= minCalls && errorEwma >= failureRate) {
+                circuit = Circuit.OPEN;
+                openedAt = clock.getAsLong();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The call was cancelled before it told anything; a probe goes back to open so the next call may probe. */
+    void abandon() {
+        lock.lock();
+        try {
+            if (circuit == Circuit.HALF_OPEN) {
+                circuit = Circuit.OPEN;
+                openedAt = clock.getAsLong() - openNanos;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** EWMA latency for ordering providers; 0 (try it) when never measured or not measured for a while. */
+    double routingLatency() {
+        lock.lock();
+        try {
+            return Double.isNaN(latencyEwma) || clock.getAsLong() - lastSample > staleNanos ? 0 : latencyEwma;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return the {@code p} percentile of recent latencies in ms, or -1 while there are too few */
+    long percentile(double p) {
+        long[] sorted;
+        lock.lock();
+        try {
+            if (samples < MIN_SAMPLES) return -1;
+            sorted = Arrays.copyOf(latencies, samples);   // filled from 0 until the ring wraps
+        } finally {
+            lock.unlock();
+        }
+        Arrays.sort(sorted);
+        return sorted[Math.clamp((int) Math.ceil(p * sorted.length) - 1, 0, sorted.length - 1)];
+    }
+
+    double latencyEwma() {
+        lock.lock();
+        try {
+            return latencyEwma;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double errorRate() {
+        lock.lock();
+        try {
+            return errorEwma;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Circuit circuit() {
+        lock.lock();
+        try {
+            return circuit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean coolDownOver() {
+        return clock.getAsLong() - openedAt >= openNanos;
+    }
+}
@@ -0,0 +1,243 @@
+package com.apple.salesassistant.chat.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Coalesces identical provider calls that are in flight at the same time: the first caller (leader) makes the
+ * call, later callers with the same key (followers) wait for its result and, when streaming, receive its
+ * deltas, replayed from the start if they join late. Each follower is sent its text on its own (waiting) thread,
+ * so a slow client only holds up itself, never the provider read or the other listeners.
+ * <ul>
+ *   <li>Followers wait at most {@code llm.coalesce.timeout-ms}, then fail on their own; the call goes on.</li>
+ *   <li>A failed call fails every waiter with the same exception.</li>
+ *   <li>A subscriber whose {@code onDelta} throws (its client went away) is detached; the call is aborted only
+ *       when nobody is left listening.</li>
+ * </ul>
+ * The key covers everything that shapes the answer (see {@link #fingerprint}); followers are counted in
+ * {@code llm.coalesced}.
+ */
+@Slf4j
+@Component
+public class SingleFlight {
+
+    private final Map<String, Call> calls = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final long timeoutMs;
+    private final Counter coalesced;
+
+    public SingleFlight(Environment env, MeterRegistry meters) {
+        this.enabled = Boolean.parseBoolean(env.getProperty("llm.coalesce.enabled", "true"));
+        this.timeoutMs = Long.parseLong(env.getProperty("llm.coalesce.timeout-ms", "90000"));
+        this.coalesced = Counter.builder("llm.coalesced")
+                .description("LLM calls served by an identical call already in flight")
+                .register(meters);
+    }
+
+    /**
+     * @param key     identical calls share a key, see {@link #fingerprint}
+     * @param onDelta receives the answer text as it is produced; null for callers that only want the result
+     * @param call    performs the provider request, publishing text to the consumer it is given
+     * @return the full answer text
+     */
+    public String run(String key, Consumer<String> onDelta, Function<Consumer<String>, String> call) {
+        if (!enabled) return call.apply(onDelta != null ? onDelta : delta -> {});
+        Call mine = new Call();
+        Subscriber self = mine.subscribe(onDelta);
+        Call existing = calls.putIfAbsent(key, mine);
+        if (existing != null) return follow(existing, onDelta);
+
+        String result;
+        try {
+            result = call.apply(delta -> mine.publish(self, delta));
+            mine.complete(result, null);
+        } catch (RuntimeException e) {
+            mine.complete(null, e);
+            throw e;
+        } finally {
+            calls.remove(key, mine);
+        }
+        if (self.error != null) throw self.error;
+        self.finish(result);
+        return result;
+    }
+
+    private String follow(Call call, Consumer<String> onDelta) {
+        coalesced.increment();
+        Subscriber s = call.subscribe(onDelta);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            if (onDelta != null) call.relay(s, deadline);
+            String result = call.result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            s.finish(result);
+            return result;
+        } catch (TimeoutException e) {
+            call.unsubscribe(s, null);
+            throw new IllegalStateException("Timed out after %d ms waiting for an identical LLM call".formatted(timeoutMs), e);
+        } catch (ExecutionException e) {
+            // the leader's own exception, so e.g. a 429 with Retry-After reaches followers as such
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            throw new IllegalStateException("Shared LLM call failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            call.unsubscribe(s, null);
+            throw new IllegalStateException("Interrupted waiting for an identical LLM call", e);
+        }
+    }
+
+    /** SHA-256 over the parts, each followed by a 0 byte so boundaries cannot shift. */
+    public static String fingerprint(String... parts) {
+        try {
+            var sha = MessageDigest.getInstance("SHA-256");
+            for (String p : parts) {
+                sha.update(String.valueOf(p).getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    int inFlight() {
+        return calls.size();
+    }
+
+    /**
+     * One provider call and everyone listening to it. The text produced so far is kept once; each subscriber has
+     * its own position in it. A lock, not synchronized: holders may be virtual threads. No callback runs under it.
+     */
+    private static final class Call {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final StringBuilder text = new StringBuilder();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private RuntimeException detached;   // why the last subscriber to leave left
+
+        Subscriber subscribe(Consumer<String> onDelta) {
+            lock.lock();
+            try {
+                Subscriber s = new Subscriber(onDelta);
+                subscribers.add(s);
+                return s;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void unsubscribe(Subscriber s, RuntimeException error) {
+            lock.lock();
+            try {
+                subscribers.remove(s);
+                if (error != null) {
+                    s.error = error;
+                    detached = error;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Called on the provider-reading thread; delivers to the leader's own subscriber only. */
+        void publish(Subscriber leader, String delta) {
+            lock.lock();
+            try {
+                text.append(delta);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (leader.error == null) {
+                try {
+                    leader.deliver(delta);
+                } catch (RuntimeException e) {
+                    unsubscribe(leader, e);
+                }
+            }
+            lock.lock();
+            try {
+                if (subscribers.isEmpty() && detached != null) throw detached;   // nobody left: abort the provider call
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void complete(String answer, RuntimeException error) {
+            lock.lock();
+            try {
+                if (error == null) result.complete(answer);
+                else result.completeExceptionally(error);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Sends a follower the text it has not seen yet, on the follower's thread, until the call is over. */
+        void relay(Subscriber s, long deadline) throws TimeoutException, InterruptedException {
+            boolean done;
+            do {
+                String pending;
+                lock.lock();
+                try {
+                    while (s.delivered == text.length() && !result.isDone()) {
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0) throw new TimeoutException();
+                        changed.awaitNanos(left);
+                    }
+                    pending = text.substring(s.delivered);
+                    done = result.isDone();
+                } finally {
+                    lock.unlock();
+                }
+                if (pending.isEmpty()) continue;
+                try {
+                    s.deliver(pending);
+                } catch (RuntimeException e) {
+                    unsubscribe(s, e);
+                    throw e;
+                }
+            } while (!done);
+        }
+    }
+
+    private static final class Subscriber {
+        private final Consumer<String> onDelta;
+        private int delivered;
+        private volatile RuntimeException error;
+
+        Subscriber(Consumer<String> onDelta) {
+            this.onDelta = onDelta;
+        }
+
+        void deliver(String delta) {
+            if (onDelta != null) onDelta.accept(delta);
+            delivered += delta.length();
+        }
+
+        /** Sends whatever the subscriber has not seen yet, e.g. all of it when the leader did not stream. */
+        void finish(String result) {
+            if (onDelta != null && result != null && delivered < result.length()) {
+                onDelta.accept(result.substring(delivered));
+                delivered = result.length();
+            }
+        }
+    }
+}
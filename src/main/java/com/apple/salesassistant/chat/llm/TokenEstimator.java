@@ -0,0 +1,26 @@
+package com.apple.salesassistant.chat.llm;
+
+/**
+ * Cheap model-token estimate without a tokenizer: the larger of ~4 characters per token and ~0.75 words
+ * per token, which tracks BPE tokenizers closely enough for budgeting (numbers and symbols push toward the
+ * character bound, plain prose toward the word bound). Used wherever text is sized against a context budget.
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {}
+
+    public static int estimate(CharSequence text) {
+        int chars = 0, words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                inWord = false;
+            } else {
+                chars++;
+                if (!inWord) words++;
+                inWord = true;
+            }
+        }
+        return Math.max((chars + 3) / 4, (words * 4 + 2) / 3);
+    }
+}
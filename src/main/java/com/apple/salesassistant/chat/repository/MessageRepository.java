@@ -14,5 +14,7 @@ public interface MessageRepository extends JpaRepository<MessageEntity, UUID> {
 
     Optional<MessageEntity> findTopByConversationIdAndRoleOrderByCreatedAtDesc(UUID conversationId, MessageEntity.Role role);
 
+    Optional<MessageEntity> findTopByReplyToMessageIdOrderByCreatedAtDesc(UUID replyToMessageId);
+
     List<MessageEntity> findAllByConversationIdOrderByCreatedAtAsc(UUID conversationId);
 }
@@ -0,0 +1,175 @@
+package com.apple.salesassistant.chat.service;
+
+import com.apple.salesassistant.chat.kb.InMemoryKb;
+import com.apple.salesassistant.chat.llm.EmbeddingService;
+import com.apple.salesassistant.chat.llm.SingleFlight;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Answers already produced for the same prompt, so a repeated question skips the LLM call. Tiers, checked in order:
+ * <ul>
+ *   <li>{@code local}: bounded Caffeine cache keyed by SHA-256 of (provider, model, full prompt)</li>
+ *   <li>{@code redis}: the same key under {@code chat.answer-cache.redis.key-prefix}, shared by all instances
+ *       ({@code chat.answer-cache.redis.enabled})</li>
+ *   <li>{@code semantic}: a question whose embedding is within {@code chat.answer-cache.semantic.threshold}
+ *       cosine of one already answered with the same role and the same retrieved chunks
+ *       ({@code chat.answer-cache.semantic.enabled}, off by default; costs one embedding call per miss)</li>
+ * </ul>
+ * Every key is scoped by a namespace hashed from the KB snapshot fingerprint and the system prompt, so a KB
+ * or system-prompt change makes all older entries unreachable; the in-process tiers are also dropped then,
+ * Redis entries age out by TTL. Lookups are counted in {@code llm.answer.cache} tagged {@code result}, {@code tier}.
+ */
+@Slf4j
+@Component
+public class AnswerCache {
+
+  /** What identifies an answer: exact prompt for the exact tiers, question plus context for the semantic one. */
+  public record Key(String exact, String context, String question) {}
+
+  private record Similar(float[] question, String answer) {}
+
+  private final InMemoryKb kb;
+  private final EmbeddingService embeddings;
+  private final StringRedisTemplate redis;
+  private final boolean enabled;
+  private final boolean semantic;
+  private final double threshold;
+  private final int perContext;
+  private final String redisPrefix;
+  private final Duration ttl;
+  private final Cache<String, String> local;
+  private final Cache<String, List<Similar>> similar;
+  private final AtomicReference<String> namespace = new AtomicReference<>("");
+  private final Map<String, Counter> hits;
+  private final Counter misses;
+
+  public AnswerCache(InMemoryKb kb, EmbeddingService embeddings, ObjectProvider<StringRedisTemplate> redis,
+                     Environment env, MeterRegistry meters) {
+    this.kb = kb;
+    this.embeddings = embeddings;
+    this.hits = Map.of("local", counter(meters, "hit", "local"), "redis", counter(meters, "hit", "redis"),
+            "semantic", counter(meters, "hit", "semantic"));
+    this.misses = counter(meters, "miss", "none");
+    this.enabled = Boolean.parseBoolean(env.getProperty("chat.answer-cache.enabled", "true"));
+    this.ttl = Duration.ofSeconds(Long.parseLong(env.getProperty("chat.answer-cache.ttl-seconds", "3600")));
+    long maxEntries = Long.parseLong(env.getProperty("chat.answer-cache.max-entries", "5000"));
+    this.local = Caffeine.newBuilder().maximumSize(maxEntries).expireAfterWrite(ttl).build();
+    this.redis = Boolean.parseBoolean(env.getProperty("chat.answer-cache.redis.enabled", "false"))
+            ? redis.getIfAvailable() : null;
+    this.redisPrefix = env.getProperty("chat.answer-cache.redis.key-prefix", "llm:answer:");
+    this.semantic = Boolean.parseBoolean(env.getProperty("chat.answer-cache.semantic.enabled", "false"));
+    this.threshold = Double.parseDouble(env.getProperty("chat.answer-cache.semantic.threshold", "0.95"));
+    this.perContext = Integer.parseInt(env.getProperty("chat.answer-cache.semantic.per-context", "32"));
+    this.similar = Caffeine.newBuilder().maximumSize(maxEntries).expireAfterWrite(ttl).build();
+  }
+
+  /**
+   * @param systemPrompt system instructions sent with the prompt
+   * @param prompt       the full user prompt (role banner, packed context, question)
+   * @param context      what the semantic tier compares within: role banner and the chunks the prompt was built from
+   */
+  public Key key(String provider, String model, String systemPrompt, String prompt, String context, String question) {
+    String ns = namespace(systemPrompt);
+    return new Key(SingleFlight.fingerprint(ns, provider, model, prompt),
+            SingleFlight.fingerprint(ns, provider, model, context), question);
+  }
+
+  /** @return the cached answer, or null on a miss */
+  public String get(Key key) {
+    if (!enabled) return null;
+    String hit = local.getIfPresent(key.exact());
+    if (hit != null) return count(hit, "local");
+    if (redis != null) {
+      try {
+        hit = redis.opsForValue().get(redisPrefix + key.exact());
+      } catch (RuntimeException e) {
+        log.warn("Answer cache: Redis lookup failed: {}", e.getMessage());
+      }
+      if (hit != null) {
+        local.put(key.exact(), hit);
+        return count(hit, "redis");
+      }
+    }
+    if (semantic) {
+      List<Similar> candidates = similar.getIfPresent(key.context());
+      if (candidates != null) {
+        float[] q = embeddings.embed(key.question());
+        for (Similar s : candidates) {
+          if (cosine(q, s.question()) >= threshold) return count(s.answer(), "semantic");
+        }
+      }
+    }
+    return count(null, "none");
+  }
+
+  public void put(Key key, String answer) {
+    if (!enabled || answer == null || answer.isBlank()) return;
+    local.put(key.exact(), answer);
+    if (redis != null) {
+      try {
+        redis.opsForValue().set(redisPrefix + key.exact(), answer, ttl);
+      } catch (RuntimeException e) {
+        log.warn("Answer cache: Redis write failed: {}", e.getMessage());
+      }
+    }
+    if (semantic) {
+      var entry = new Similar(embeddings.embed(key.question()), answer);
+      similar.asMap().compute(key.context(), (k, list) -> {
+        List<Similar> next = new ArrayList<>(list != null ? list : List.of());
+        if (next.size() == perContext) next.removeFirst();
+        next.add(entry);
+        return List.copyOf(next);
+      });
+    }
+  }
+
+  /** Drops the in-process tiers whenever the KB snapshot or the system prompt differs from the last lookup. */
+  private String namespace(String systemPrompt) {
+    String ns = SingleFlight.fingerprint(kb.snapshot().fingerprint(), systemPrompt);
+    String previous = namespace.getAndSet(ns);
+    if (!previous.isEmpty() && !previous.equals(ns)) {
+      log.info("Answer cache: KB or system prompt changed, dropping {} entries", local.estimatedSize());
+      local.invalidateAll();
+      similar.invalidateAll();
+    }
+    return ns;
+  }
+
+  private static Counter counter(MeterRegistry meters, String result, String tier) {
+    return Counter.builder("llm.answer.cache")
+            .description("LLM answer cache lookups")
+            .tag("result", result)
+            .tag("tier", tier)
+            .register(meters);
+  }
+
+  private String count(String answer, String tier) {
+    (answer != null ? hits.get(tier) : misses).increment();
+    return answer;
+  }
+
+  private static double cosine(float[] a, float[] b) {
+    if (a.length != b.length) return 0;
+    double dot = 0, na = 0, nb = 0;
+    for (int i = 0; i < a.length; i++) {
+      dot += a[i] * b[i];
+      na += a[i] * a[i];
+      nb += b[i] * b[i];
+    }
+    return na == 0 || nb == 0 ? 0 : dot / Math.sqrt(na * nb);
+  }
+}
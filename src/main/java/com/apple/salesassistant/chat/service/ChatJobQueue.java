@@ -0,0 +1,325 @@
+package com.apple.salesassistant.chat.service;
+
+import com.apple.salesassistant.auth.api.filter.JwtAuthFilter;
+import com.apple.salesassistant.chat.dto.ConversationResult;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat answers as jobs on a Redis stream ({@code chat.jobs.stream}), so the request that asks for one does not
+ * wait for the LLM. Any node running a {@link ChatJobWorker} reads them through the consumer group
+ * {@code chat.jobs.group}. The worker running a job holds a lease on it ({@code <stream>:<id>:lease}) that its
+ * heartbeats keep renewing; once a worker stops for {@code chat.jobs.claim-idle-ms}, its lease lapses and
+ * another takes the job over.
+ * <p>
+ * Each job has a hash {@code <stream>:<id>} (status, owner, result or error) kept for
+ * {@code chat.jobs.result-ttl-seconds}. Finishing a job publishes its id on {@code <stream>:done}, which wakes the
+ * long polls of {@link #await} on every node. A message is {@link #reserve reserved} for its job under
+ * {@code <stream>:request:<hash of conversation and message>} for as long, so a retry gets the same job; the job's
+ * hash is created in the {@code reserved} state by the same script, so a retry before it is queued finds it too.
+ * Enabled with {@code chat.jobs.enabled=true} (uses {@code spring.data.redis.*}).
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "chat.jobs.enabled", havingValue = "true")
+public class ChatJobQueue {
+
+  /** What a worker needs to answer as the user who asked. */
+  public record Job(String id, UUID conversationId, UUID userMessageId, String message, JwtAuthFilter.AuthUser user) {}
+
+  /** A job read from the stream; acknowledge it with {@link #ack}. */
+  public record Delivery(RecordId recordId, Job job) {}
+
+  public enum State { reserved, queued, running, done, failed }
+
+  /** What {@link #begin} allows a worker to do with a delivered job. */
+  public enum Claim {
+    /** Answer it: new, or its previous worker stopped renewing the lease. */
+    RUN,
+    /** Already has an outcome (a redelivery): only acknowledge it. */
+    FINISHED,
+    /** A live worker is answering it: leave it pending. */
+    TAKEN
+  }
+
+  public record Status(String jobId, State state, String userId, ConversationResult result, String error) {
+    public boolean finished() {
+      return state == State.done || state == State.failed;
+    }
+  }
+
+  private final StringRedisTemplate redis;
+  private final ObjectMapper json;
+  private final String stream;
+  private final String group;
+  private final Duration ttl;
+  private final Duration block;
+  private final Duration claimIdle;
+  private final RedisMessageListenerContainer listener = new RedisMessageListenerContainer();
+  private final Map<String, Set<CompletableFuture<Void>>> waiters = new ConcurrentHashMap<>();
+  private final ExecutorService polls;
+
+  /**
+   * Reserves the request key for ARGV[1] and creates that job's hash as {@code reserved}, unless the key names a
+   * job whose hash still exists (returned). The holder's hash is not in KEYS: fine on one node, not on a cluster.
+   */
+  private static final RedisScript<String> RESERVE = RedisScript.of("""
+      local holder = redis.call('get', KEYS[1])
+      if holder and redis.call('exists', ARGV[4] .. holder) == 1 then return holder end
+      redis.call('set', KEYS[1], ARGV[1], 'EX', ARGV[2])
+      redis.call('hset', KEYS[2], 'state', 'reserved', 'userId', ARGV[3], 'updatedAt', ARGV[5])
+      redis.call('expire', KEYS[2], ARGV[2])
+      return false
+      """, String.class);
+
+  /** Deletes the request key if it still names ARGV[1], and that job's hash if it never got past reserved. */
+  private static final RedisScript<Long> RELEASE = RedisScript.of("""
+      if redis.call('get', KEYS[1]) ~= ARGV[1] then return 0 end
+      redis.call('del', KEYS[1])
+      if redis.call('hget', KEYS[2], 'state') == 'reserved' then redis.call('del', KEYS[2]) end
+      return 1
+      """, Long.class);
+
+  public ChatJobQueue(StringRedisTemplate redis, ObjectMapper json, Environment env) {
+    this.redis = redis;
+    this.json = json;
+    this.stream = env.getProperty("chat.jobs.stream", "chat:jobs");
+    this.group = env.getProperty("chat.jobs.group", "chat-workers");
+    this.ttl = Duration.ofSeconds(Long.parseLong(env.getProperty("chat.jobs.result-ttl-seconds", "3600")));
+    this.block = Duration.ofMillis(Long.parseLong(env.getProperty("chat.jobs.block-ms", "2000")));
+    this.claimIdle = Duration.ofMillis(Long.parseLong(env.getProperty("chat.jobs.claim-idle-ms", "300000")));
+    // finished long polls read the status here, not on the pub/sub listener or the JDK's shared timeout thread
+    this.polls = Boolean.parseBoolean(env.getProperty("spring.threads.virtual.enabled", "false"))
+        ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-job-poll-", 0).factory())
+        : Executors.newFixedThreadPool(Integer.parseInt(env.getProperty("chat.jobs.poll-threads", "4")),
+            Thread.ofPlatform().daemon().name("chat-job-poll-", 0).factory());
+  }
+
+  @PostConstruct
+  public void start() {
+    try {
+      redis.opsForStream().createGroup(stream, ReadOffset.from("0"), group);
+    } catch (DataAccessException e) {
+      if (!String.valueOf(e.getMostSpecificCause().getMessage()).contains("BUSYGROUP")) throw e;
+    }
+    listener.setConnectionFactory(Objects.requireNonNull(redis.getConnectionFactory()));
+    listener.addMessageListener((message, pattern) -> wake(new String(message.getBody(), StandardCharsets.UTF_8)),
+        new ChannelTopic(stream + ":done"));
+    listener.afterPropertiesSet();
+    listener.start();
+    log.info("Chat jobs on Redis stream {} (group {})", stream, group);
+  }
+
+  @PreDestroy
+  void stop() throws Exception {
+    listener.destroy();
+    polls.shutdownNow();
+  }
+
+  /**
+   * Makes {@code id} the job that answers {@code message} in the conversation, unless another job already does.
+   * A holder is only taken over once its job hash has expired (or was released).
+   * @return null once reserved, else the id of the job that holds the message (reserved, queued, running or done)
+   */
+  public String reserve(UUID conversationId, String message, String id, JwtAuthFilter.AuthUser user) {
+    return redis.execute(RESERVE, List.of(requestKey(conversationId, message), key(id)),
+        id, String.valueOf(ttl.toSeconds()), userId(user), stream + ":", Instant.now().toString());
+  }
+
+  /** Ends {@code id}'s reservation, e.g. when it failed, so the message can be asked again. */
+  public void release(UUID conversationId, String message, String id) {
+    redis.execute(RELEASE, List.of(requestKey(conversationId, message), key(id)), id);
+  }
+
+  /** Queues {@code job} under its id (a new one if it has none) and returns the id. */
+  public String enqueue(Job job) {
+    String id = job.id() != null ? job.id() : UUID.randomUUID().toString();
+    Job queued = new Job(id, job.conversationId(), job.userMessageId(), job.message(), job.user());
+    write(id, Map.of("state", State.queued.name(), "userId", userId(job.user())));
+    redis.opsForStream().add(stream, Map.of("job", toJson(queued)));
+    return id;
+  }
+
+  /** A job that is done from the start, e.g. a repeated message answered from history. */
+  public String completed(String id, JwtAuthFilter.AuthUser user, ConversationResult result) {
+    write(id, Map.of("state", State.done.name(), "userId", userId(user), "result", toJson(result)));
+    return id;
+  }
+
+  /** Waits up to the block time for the next job for {@code consumer}. */
+  public List<Delivery> next(String consumer) {
+    var records = redis.opsForStream().read(Consumer.from(group, consumer),
+        StreamReadOptions.empty().count(1).block(block), StreamOffset.create(stream, ReadOffset.lastConsumed()));
+    return deliveries(records);
+  }
+
+  /** Takes over jobs another consumer read but did not acknowledge within the claim idle time. */
+  public List<Delivery> reclaim(String consumer) {
+    PendingMessages pending = redis.opsForStream().pending(stream, group, Range.unbounded(), 16);
+    RecordId[] stale = pending.stream()
+        .filter(p -> p.getElapsedTimeSinceLastDelivery().compareTo(claimIdle) >= 0)
+        .map(PendingMessage::getId)
+        .toArray(RecordId[]::new);
+    if (stale.length == 0) return List.of();
+    log.warn("Reclaiming {} chat job(s) idle for over {}", stale.length, claimIdle);
+    return deliveries(redis.opsForStream().claim(stream, group, consumer, XClaimOptions.minIdle(claimIdle).ids(stale)));
+  }
+
+  /** Takes the job for {@code consumer} if nobody holds its lease, and marks it running. */
+  public Claim begin(String id, String consumer) {
+    Status s = status(id);
+    if (s != null && s.finished()) return Claim.FINISHED;
+    if (!Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(leaseKey(id), consumer, claimIdle))) return Claim.TAKEN;
+    write(id, Map.of("state", State.running.name(), "owner", consumer, "heartbeat", Instant.now().toString()));
+    return Claim.RUN;
+  }
+
+  /** Renews {@code consumer}'s lease on a running job; false if it no longer holds it. */
+  public boolean heartbeat(String id, String consumer) {
+    if (!consumer.equals(redis.opsForValue().get(leaseKey(id)))) return false;
+    redis.expire(leaseKey(id), claimIdle);
+    redis.opsForHash().put(key(id), "heartbeat", Instant.now().toString());
+    return true;
+  }
+
+  /** How long a lease lasts without a heartbeat. */
+  public Duration claimIdle() {
+    return claimIdle;
+  }
+
+  public void complete(String id, ConversationResult result) {
+    finish(id, Map.of("state", State.done.name(), "result", toJson(result)));
+  }
+
+  public void fail(String id, String error) {
+    finish(id, Map.of("state", State.failed.name(), "error", String.valueOf(error)));
+  }
+
+  /** Acknowledges and deletes the stream entry, so the stream only holds unfinished jobs. */
+  public void ack(Delivery d) {
+    redis.opsForStream().acknowledge(stream, group, d.recordId());
+    redis.opsForStream().delete(stream, d.recordId());
+  }
+
+  /** @return the job's status, or null if there is no such job (or it expired) */
+  public Status status(String id) {
+    Map<Object, Object> h = redis.opsForHash().entries(key(id));
+    if (h.isEmpty()) return null;
+    Object result = h.get("result");
+    return new Status(id, State.valueOf((String) h.get("state")), (String) h.get("userId"),
+        result != null ? fromJson((String) result, ConversationResult.class) : null, (String) h.get("error"));
+  }
+
+  /**
+   * Long poll: completes with the status once the job finished, or after {@code waitMs} with whatever it is then.
+   * No thread waits meanwhile; the final status is read on the poll executor.
+   */
+  public CompletableFuture<Status> await(String id, long waitMs) {
+    var signal = new CompletableFuture<Void>();
+    waiters.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).add(signal);
+    Status now = status(id);   // after registering, so a finish in between is not missed
+    if (now == null || now.finished() || waitMs <= 0) {
+      unregister(id, signal);
+      return CompletableFuture.completedFuture(now);
+    }
+    return signal.completeOnTimeout(null, waitMs, TimeUnit.MILLISECONDS).thenApplyAsync(v -> {
+      unregister(id, signal);
+      return status(id);
+    }, polls);
+  }
+
+  private void finish(String id, Map<String, String> fields) {
+    write(id, fields);
+    redis.convertAndSend(stream + ":done", id);
+  }
+
+  private void wake(String id) {
+    Set<CompletableFuture<Void>> signals = waiters.remove(id);
+    if (signals != null) signals.forEach(s -> s.complete(null));
+  }
+
+  private void unregister(String id, CompletableFuture<Void> signal) {
+    waiters.computeIfPresent(id, (k, set) -> {
+      set.remove(signal);
+      return set.isEmpty() ? null : set;
+    });
+  }
+
+  private void write(String id, Map<String, String> fields) {
+    Map<String, String> h = new HashMap<>(fields);
+    h.put("updatedAt", Instant.now().toString());
+    redis.opsForHash().putAll(key(id), h);
+    redis.expire(key(id), ttl);
+  }
+
+  private List<Delivery> deliveries(List<MapRecord<String, Object, Object>> records) {
+    if (records == null) return List.of();
+    List<Delivery> out = new ArrayList<>();
+    for (var r : records) {
+      try {
+        out.add(new Delivery(r.getId(), fromJson((String) r.getValue().get("job"), Job.class)));
+      } catch (RuntimeException e) {
+        // unreadable entries would otherwise be reclaimed forever
+        log.error("Dropping unreadable chat job {}: {}", r.getId(), e.getMessage());
+        ack(new Delivery(r.getId(), null));
+      }
+    }
+    return out;
+  }
+
+  private String key(String id) {
+    return stream + ":" + id;
+  }
+
+  private String leaseKey(String id) {
+    return key(id) + ":lease";
+  }
+
+  private String requestKey(UUID conversationId, String message) {
+    return stream + ":request:" + UUID.nameUUIDFromBytes((conversationId + "\n" + message).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String userId(JwtAuthFilter.AuthUser user) {
+    return user != null ? user.id() : "";
+  }
+
+  private String toJson(Object o) {
+    try {
+      return json.writeValueAsString(o);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private <T> T fromJson(String s, Class<T> type) {
+    try {
+      return json.readValue(s, type);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
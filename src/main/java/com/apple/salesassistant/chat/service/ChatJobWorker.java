@@ -0,0 +1,145 @@
+package com.apple.salesassistant.chat.service;
+
+import com.apple.salesassistant.auth.api.filter.JwtAuthFilter;
+import com.apple.salesassistant.chat.dto.ConversationResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Answers queued chat jobs: {@code chat.jobs.workers} threads per node (0 for a node that only takes requests),
+ * each a consumer of the {@link ChatJobQueue} group. A job runs as the user who queued it, so retrieval applies
+ * the same ABAC rules as a direct call. Failed jobs are reported, not retried; only jobs of a worker that died
+ * midway are picked up again. While a job runs, its lease is renewed every third of {@code chat.jobs.claim-idle-ms},
+ * so a long answer is never taken over by a second worker. A delivery is acknowledged only once the job's
+ * outcome is written: if Redis fails before that, the job stays pending and is picked up again.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "chat.jobs.enabled", havingValue = "true")
+public class ChatJobWorker {
+
+  private final ChatJobQueue queue;
+  private final ConversationService conversations;
+  private final int workers;
+  private final long claimEveryMs;
+  private final boolean virtualThreads;
+  private final List<Thread> threads = new ArrayList<>();
+  private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(
+      r -> Thread.ofPlatform().daemon().name("chat-job-heartbeat").unstarted(r));
+  private volatile boolean running;
+
+  public ChatJobWorker(ChatJobQueue queue, ConversationService conversations, Environment env) {
+    this.queue = queue;
+    this.conversations = conversations;
+    this.workers = Integer.parseInt(env.getProperty("chat.jobs.workers", "4"));
+    this.claimEveryMs = Long.parseLong(env.getProperty("chat.jobs.claim-every-ms", "30000"));
+    this.virtualThreads = Boolean.parseBoolean(env.getProperty("spring.threads.virtual.enabled", "false"));
+  }
+
+  @PostConstruct
+  public void start() {
+    running = true;
+    String node = ManagementFactory.getRuntimeMXBean().getName();   // pid@host: unique per process
+    for (int i = 0; i < workers; i++) {
+      String consumer = node + "-" + i;
+      Thread.Builder builder = virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+      threads.add(builder.name("chat-job-" + i).start(() -> loop(consumer)));
+    }
+    if (workers > 0) log.info("Started {} chat job workers", workers);
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    running = false;
+    threads.forEach(Thread::interrupt);
+    for (Thread t : threads) t.join(5000);
+    heartbeats.shutdownNow();
+  }
+
+  private void loop(String consumer) {
+    long nextClaim = 0;
+    while (running) {
+      try {
+        List<ChatJobQueue.Delivery> jobs = queue.next(consumer);
+        if (System.currentTimeMillis() >= nextClaim) {
+          jobs = Stream.concat(jobs.stream(), queue.reclaim(consumer).stream()).toList();
+          nextClaim = System.currentTimeMillis() + claimEveryMs;
+        }
+        for (ChatJobQueue.Delivery d : jobs) process(consumer, d);
+      } catch (RuntimeException e) {
+        if (!running) return;
+        log.warn("Chat job worker {}: {}", consumer, e.getMessage());
+        try {
+          Thread.sleep(1000);
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+    }
+  }
+
+  void process(String consumer, ChatJobQueue.Delivery d) {
+    ChatJobQueue.Job job = d.job();
+    try {
+      ChatJobQueue.Claim claim = queue.begin(job.id(), consumer);
+      if (claim == ChatJobQueue.Claim.TAKEN) return;
+      if (claim == ChatJobQueue.Claim.RUN) run(consumer, job);
+      queue.ack(d);
+    } catch (RuntimeException e) {
+      log.warn("Chat job {} left pending, to be picked up again: {}", job.id(), e.getMessage());
+    }
+  }
+
+  private void run(String consumer, ChatJobQueue.Job job) {
+    long every = Math.max(1, queue.claimIdle().toMillis() / 3);
+    var heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+      try {
+        if (!queue.heartbeat(job.id(), consumer)) log.warn("Chat job {}: lease lost by {}", job.id(), consumer);
+      } catch (RuntimeException e) {
+        log.warn("Chat job {}: heartbeat failed: {}", job.id(), e.getMessage());
+      }
+    }, every, every, TimeUnit.MILLISECONDS);
+    try {
+      runAs(job.user());
+      ConversationResult result;
+      try {
+        result = conversations.runJob(job);
+      } catch (RuntimeException e) {
+        log.warn("Chat job {} failed: {}", job.id(), e.getMessage());
+        queue.fail(job.id(), e.getMessage());
+        queue.release(job.conversationId(), job.message(), job.id());
+        return;
+      }
+      queue.complete(job.id(), result);
+    } finally {
+      heartbeat.cancel(false);
+      SecurityContextHolder.clearContext();
+    }
+  }
+
+  /** The same authentication {@link JwtAuthFilter} builds from the user's token. */
+  private static void runAs(JwtAuthFilter.AuthUser user) {
+    if (user == null) return;
+    var authorities = Stream.concat(
+            user.roles() != null ? user.roles().stream() : Stream.<String>empty(),
+            user.scopes() != null ? user.scopes().stream() : Stream.<String>empty())
+        .map(SimpleGrantedAuthority::new)
+        .toList();
+    SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, authorities));
+  }
+}
@@ -2,56 +2,91 @@ package com.apple.salesassistant.chat.service;
 
 import com.apple.salesassistant.auth.api.filter.JwtAuthFilter;
 import com.apple.salesassistant.auth.dto.UserContext;
-import com.apple.salesassistant.chat.kb.InMemoryKb;
 import com.apple.salesassistant.chat.kb.KbChunk;
-import com.apple.salesassistant.chat.kb.KbPolicy;
 import com.apple.salesassistant.chat.kb.KbRetriever;
 import com.apple.salesassistant.chat.llm.LlmService;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class ChatService {
 
-  private final InMemoryKb kb;
+  /**
+   * What goes to the model, most stable part first so providers can reuse the cached prefix of earlier
+   * requests: {@code instructions} follow the static system prompt in the system message, {@code user} holds
+   * the context and the question.
+   */
+  public record Prompt(String instructions, String user) {}
+
+  /** Chunks in the prompt by document, then chunk id: the same chunks give the same text whatever their scores. */
+  private static final Comparator<ContextPacker.Packed> CANONICAL = Comparator
+      .comparing((ContextPacker.Packed p) -> p.chunk().docId())
+      .thenComparing(p -> p.chunk().chunkId());
+
   private final KbRetriever retriever;
   private final LlmService llm; // your provider-switching service
+  private final ContextPacker packer;
+  private final AnswerCache answers;
 
-  public ChatService(InMemoryKb kb, KbRetriever retriever, LlmService llm) {
-    this.kb = kb;
+  public ChatService(KbRetriever retriever, LlmService llm, ContextPacker packer, AnswerCache answers) {
     this.retriever = retriever;
     this.llm = llm;
+    this.packer = packer;
+    this.answers = answers;
   }
 
   /** Main entry from controller */
   public Map<String, Object> answer(String userQuestion) {
+    return answer(userQuestion, prompt -> llm.chat(prompt.instructions(), prompt.user()), cached -> {});
+  }
+
+  /** Same as {@link #answer}, with the model's text handed to {@code onDelta} as it is generated. */
+  public Map<String, Object> answerStream(String userQuestion, Consumer<String> onDelta) {
+    return answer(userQuestion, prompt -> llm.stream(prompt.instructions(), prompt.user(), onDelta), onDelta);
+  }
+
+  private Map<String, Object> answer(String userQuestion, Function<Prompt, String> model, Consumer<String> onCached) {
     UserContext userContext = getUserContext();
 
 
-    // Candidate KB → ABAC filter → topK selection
-    List<KbChunk> candidates = kb.all();
-    List<KbChunk> allowed = candidates.stream()
-        .filter(c -> KbPolicy.canSee(userContext, c))
-        .toList();
+    // Index lookup → ABAC filter → topK selection
+    List<KbChunk> ctx = retriever.topK(userQuestion, userContext);
 
-    List<KbChunk> ctx = retriever.topK(userQuestion, allowed, userContext);
+    // Dedupe, trim and fit the chunks into the active provider's context budget
+    var packed = packer.pack(userQuestion, ctx, packer.budget(llm.providerKey()));
 
     // Build role banner (non-authoritative, for assistant style only)
     String roleBanner = banner(userContext.roles().stream().toList());
-    String prompt = buildPrompt(roleBanner, ctx, userQuestion);
+    Prompt prompt = buildPrompt(roleBanner, packed, userQuestion);
 
-    // Call the model (strategy pattern picks OpenAI or Ollama)
-    String answer = llm.chat(prompt);
+    // Same prompt (or, with the semantic tier, a near-identical question over the same chunks) answered before?
+    var key = answers.key(llm.providerKey(), llm.model(), llm.systemPrompt(), prompt.instructions() + "\n" + prompt.user(),
+        roleBanner + "\n" + packed.chunks().stream().sorted(CANONICAL).map(p -> p.chunk().chunkId().toString())
+            .collect(Collectors.joining(",")),
+        userQuestion);
+    String answer = answers.get(key);
+    if (answer != null) {
+      onCached.accept(answer);
+    } else {
+      // Call the model (strategy pattern picks OpenAI or Ollama)
+      answer = model.apply(prompt);
+      answers.put(key, answer);
+    }
 
     return Map.of(
         "role", roleBanner,
         "answer", answer,
-        "citations", ctx.stream().map(c -> Map.of(
+        "context_tokens", packed.tokens(),
+        "citations", packed.chunks().stream().map(ContextPacker.Packed::chunk).map(c -> Map.of(
             "chunk_id", c.chunkId().toString(),
             "title", c.title(),
             "tags", c.tags()
@@ -91,16 +126,17 @@ public class ChatService {
     return "ROLE=GUEST";
   }
 
-  private static String buildPrompt(String roleBanner, List<KbChunk> ctx, String question) {
+  /** Role instructions, then the context in {@link #CANONICAL} order, then the question. */
+  static Prompt buildPrompt(String roleBanner, ContextPacker.PackedContext ctx, String question) {
+    String instructions = roleBanner + "\n"
+        + "Answer STRICTLY using the CONTEXT. If data is not visible for your role, say so.";
     StringBuilder sb = new StringBuilder();
-    sb.append(roleBanner).append('\n');
-    sb.append("Answer STRICTLY using the CONTEXT. If data is not visible for your role, say so.\n\n");
     sb.append("CONTEXT:\n");
-    for (KbChunk c : ctx) {
-      sb.append("### ").append(c.title()).append(" [").append(c.chunkId()).append("]\n");
-      sb.append(c.text()).append("\n\n");
+    for (ContextPacker.Packed p : ctx.chunks().stream().sorted(CANONICAL).toList()) {
+      sb.append(ContextPacker.header(p.chunk())).append('\n');
+      sb.append(p.text()).append("\n\n");
     }
     sb.append("QUESTION:\n").append(question);
-    return sb.toString();
+    return new Prompt(instructions, sb.toString());
   }
 }
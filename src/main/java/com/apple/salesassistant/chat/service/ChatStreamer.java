@@ -0,0 +1,87 @@
+package com.apple.salesassistant.chat.service;
+
+import com.apple.salesassistant.chat.dto.ConversationResult;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.http.MediaType;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Runs a streamed answer off the request thread and relays it as server-sent events:
+ * <ul>
+ *   <li>{@code delta}: {@code {"text": ...}} for each piece of model output, in order</li>
+ *   <li>{@code done}: the final {@link ConversationResult}, sent after the job returned (i.e. after persistence)</li>
+ *   <li>{@code error}: {@code {"message": ...}} if the job failed</li>
+ * </ul>
+ * Deltas are JSON rather than raw {@code data:} text because SSE strips a leading space from each data line.
+ * The caller's security context travels with the task, so {@link ChatService} sees the same user.
+ */
+@Slf4j
+@Component
+public class ChatStreamer {
+
+  /** Produces the answer, forwarding model output to {@code onDelta} while it runs. */
+  @FunctionalInterface
+  public interface Job {
+    ConversationResult run(Consumer<String> onDelta);
+  }
+
+  private final ExecutorService pool;
+  private final long timeoutMs;
+
+  public ChatStreamer(Environment env) {
+    // with virtual threads a stream costs no pool slot; the LLM client's connection limit bounds them instead
+    this.pool = new DelegatingSecurityContextExecutorService(
+            Boolean.parseBoolean(env.getProperty("spring.threads.virtual.enabled", "false"))
+                    ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-stream-", 0).factory())
+                    : Executors.newFixedThreadPool(Integer.parseInt(env.getProperty("chat.stream.threads", "64")),
+                        Thread.ofPlatform().daemon().name("chat-stream-", 0).factory()));
+    this.timeoutMs = Long.parseLong(env.getProperty("chat.stream.timeout-ms", "120000"));
+  }
+
+  @PreDestroy
+  void shutdown() {
+    pool.shutdownNow();
+  }
+
+  public SseEmitter stream(Job job) {
+    SseEmitter emitter = new SseEmitter(timeoutMs);
+    pool.execute(() -> {
+      try {
+        ConversationResult result = job.run(delta -> send(emitter, "delta", Map.of("text", delta)));
+        send(emitter, "done", result);
+        emitter.complete();
+      } catch (UncheckedIOException e) {
+        // client went away; failing the send already aborted the model call
+        log.info("Stream closed by client: {}", e.getMessage());
+      } catch (RuntimeException e) {
+        log.warn("Streamed answer failed", e);
+        try {
+          send(emitter, "error", Map.of("message", String.valueOf(e.getMessage())));
+          emitter.complete();
+        } catch (RuntimeException ignored) {
+          // emitter already completed or timed out
+        }
+      }
+    });
+    return emitter;
+  }
+
+  private static void send(SseEmitter emitter, String name, Object data) {
+    try {
+      emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package com.apple.salesassistant.chat.service;
+
+import com.apple.salesassistant.chat.kb.KbChunk;
+import com.apple.salesassistant.chat.kb.KbTokenizer;
+import com.apple.salesassistant.chat.llm.TokenEstimator;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Fits retrieved chunks into a token budget before they go into the prompt. Walking the chunks best-first:
+ * <ul>
+ *   <li>near-duplicates of an already packed chunk (term-set Jaccard over the threshold) are dropped</li>
+ *   <li>text shared with a packed neighbour from the same document (chunker overlap) and sentences
+ *       already packed are cut out</li>
+ *   <li>what remains is trimmed to its sentences with the most query terms, up to
+ *       {@code chat.context.max-chunk-tokens} and the budget left</li>
+ * </ul>
+ * Budgets are per LLM provider ({@code chat.context.budget-tokens.<provider>}, else {@code .default}), in
+ * estimated tokens (see {@link TokenEstimator}).
+ */
+@Component
+public class ContextPacker {
+
+  private static final Pattern SENTENCE = Pattern.compile("(?<=[.!?])\\s+|\\n+");
+  private static final int MIN_OVERLAP_CHARS = 8;
+
+  public record Packed(KbChunk chunk, String text) {}
+
+  /** Chunks as they go into the prompt, and their estimated token count including headers. */
+  public record PackedContext(List<Packed> chunks, int tokens) {}
+
+  private final org.springframework.core.env.Environment env;
+  private final int defaultBudget;
+  private final int maxChunkTokens;
+  private final double duplicateThreshold;
+
+  public ContextPacker(org.springframework.core.env.Environment env) {
+    this.env = env;
+    this.defaultBudget = Integer.parseInt(env.getProperty("chat.context.budget-tokens.default", "1200"));
+    this.maxChunkTokens = Integer.parseInt(env.getProperty("chat.context.max-chunk-tokens", "200"));
+    this.duplicateThreshold = Double.parseDouble(env.getProperty("chat.context.duplicate-threshold", "0.8"));
+  }
+
+  public int budget(String providerKey) {
+    return Integer.parseInt(env.getProperty("chat.context.budget-tokens." + providerKey, String.valueOf(defaultBudget)));
+  }
+
+  /** Header line the prompt puts above each chunk; counted against the budget. */
+  public static String header(KbChunk c) {
+    return "### " + c.title() + " [" + c.chunkId() + "]";
+  }
+
+  public PackedContext pack(String question, List<KbChunk> ranked, int budget) {
+    Set<String> queryTerms = terms(question);
+    List<Packed> out = new ArrayList<>();
+    List<Set<String>> packedTerms = new ArrayList<>();
+    Set<String> packedSentences = new HashSet<>();
+    int used = 0;
+
+    for (KbChunk c : ranked) {
+      int headerTokens = TokenEstimator.estimate(header(c));
+      int room = Math.min(maxChunkTokens, budget - used - headerTokens);
+      if (room <= 0) break;
+
+      Set<String> chunkTerms = terms(c.title() + " " + c.text());
+      if (packedTerms.stream().anyMatch(t -> jaccard(t, chunkTerms) >= duplicateThreshold)) continue;
+
+      String text = c.text();
+      for (Packed p : out) {
+        if (p.chunk().docId().equals(c.docId())) text = stripOverlap(p.chunk().text(), text);
+      }
+      Set<String> sentences = new LinkedHashSet<>();
+      for (String s : SENTENCE.split(text)) {
+        s = s.trim();
+        if (!s.isEmpty() && !packedSentences.contains(s)) sentences.add(s);
+      }
+      List<String> kept = trim(List.copyOf(sentences), queryTerms, room);
+      if (kept.isEmpty()) continue;
+
+      String packed = String.join("\n", kept);
+      packedSentences.addAll(kept);
+      packedTerms.add(chunkTerms);
+      out.add(new Packed(c, packed));
+      used += headerTokens + TokenEstimator.estimate(packed);
+    }
+    return new PackedContext(List.copyOf(out), used);
+  }
+
+  /**
+   * Highest-scoring sentences (distinct query terms, earlier first on ties) that fit {@code room}, in text order.
+   * Sentences without any query term are only used when none has one.
+   */
+  private static List<String> trim(List<String> sentences, Set<String> queryTerms, int room) {
+    int[] tokens = new int[sentences.size()];
+    int total = 0;
+    for (int i = 0; i < tokens.length; i++) total += tokens[i] = TokenEstimator.estimate(sentences.get(i));
+    if (total <= room) return sentences;
+
+    int[] score = new int[sentences.size()];
+    boolean anyMatch = false;
+    for (int i = 0; i < score.length; i++) {
+      Set<String> t = terms(sentences.get(i));
+      t.retainAll(queryTerms);
+      score[i] = t.size();
+      anyMatch |= score[i] > 0;
+    }
+    Integer[] order = new Integer[sentences.size()];
+    for (int i = 0; i < order.length; i++) order[i] = i;
+    Arrays.sort(order, Comparator.<Integer>comparingInt(i -> -score[i]).thenComparingInt(i -> i));
+
+    boolean[] keep = new boolean[sentences.size()];
+    int used = 0;
+    for (int i : order) {
+      if (anyMatch && score[i] == 0) break;
+      if (used + tokens[i] <= room) {
+        keep[i] = true;
+        used += tokens[i];
+      }
+    }
+    List<String> out = new ArrayList<>();
+    for (int i = 0; i < keep.length; i++) if (keep[i]) out.add(sentences.get(i));
+    return out;
+  }
+
+  /**
+   * Removes from {@code text} the longest prefix that ends {@code packed} or suffix that starts it,
+   * i.e. the span the chunker repeated between neighbouring chunks.
+   */
+  static String stripOverlap(String packed, String text) {
+    for (int k = Math.min(packed.length(), text.length()); k >= MIN_OVERLAP_CHARS; k--) {
+      if (packed.regionMatches(packed.length() - k, text, 0, k)) return text.substring(k).trim();
+      if (packed.regionMatches(0, text, text.length() - k, k)) return text.substring(0, text.length() - k).trim();
+    }
+    return text;
+  }
+
+  private static Set<String> terms(String s) {
+    Set<String> out = new HashSet<>();
+    KbTokenizer.scan(s, (buf, len) -> out.add(new String(buf, 0, len)));
+    return out;
+  }
+
+  private static double jaccard(Set<String> a, Set<String> b) {
+    if (a.isEmpty() && b.isEmpty()) return 1;
+    int common = 0;
+    for (String t : a) if (b.contains(t)) common++;
+    return (double) common / (a.size() + b.size() - common);
+  }
+}
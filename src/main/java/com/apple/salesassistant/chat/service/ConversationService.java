@@ -8,11 +8,18 @@ import com.apple.salesassistant.chat.repository.ConversationRepository;
 import com.apple.salesassistant.chat.repository.MessageRepository;
 import jakarta.transaction.Transactional;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 @Slf4j
 @Service
@@ -24,10 +31,20 @@ public class ConversationService {
 
     private final ChatService chatService;
 
-    public ConversationService(ConversationRepository conversationRepository, MessageRepository messageRepository, ChatService chatService) {
+    private final ChatStreamer chatStreamer;
+
+    private final ObjectProvider<ChatJobQueue> chatJobs;
+
+    /** Longer than any streamed answer takes (the LLM clients time out well before). */
+    private static final Duration PENDING_WINDOW = Duration.ofMinutes(5);
+
+    public ConversationService(ConversationRepository conversationRepository, MessageRepository messageRepository,
+                               ChatService chatService, ChatStreamer chatStreamer, ObjectProvider<ChatJobQueue> chatJobs) {
         this.conversationRepository = conversationRepository;
         this.messageRepository = messageRepository;
         this.chatService = chatService;
+        this.chatStreamer = chatStreamer;
+        this.chatJobs = chatJobs;
     }
 
 
@@ -55,7 +72,8 @@ public class ConversationService {
                 assistantMessageEntity.getIdempotencyKey().toString(),
                 latency,
                 Objects.toString(llmResponse.get("role"), ""),
-                Instant.now()
+                Instant.now(),
+                (Integer) llmResponse.get("context_tokens")
         );
 
     }
@@ -105,8 +123,107 @@ public class ConversationService {
         // 2) Persist user message (optionally with idempotency)
         UUID userMessageUuid = insertUserMessage(conversationId, message);
         // 3) Invoke ABAC + LLM (ChatService already builds prompt & retrieves KB)
+        return persistReply(conversationId, userMessageUuid, () -> chatService.answer(message));
+    }
+
+    /**
+     * Streaming variant of {@link #addMessageToConversation}. The user message is stored before streaming
+     * starts, the assistant message once the model has finished. If the stream fails or the client goes away
+     * the user message is removed again, as the rollback does for the blocking call, so a retry is not
+     * mistaken for a duplicate.
+     */
+    public SseEmitter streamMessageToConversation(UUID conversationId, String message) {
+        Optional<ConversationResult> duplicate = checkForDuplicatedMessage(conversationId, message);
+        if (duplicate.isPresent()) {
+            return chatStreamer.stream(onDelta -> duplicate.get());
+        }
+        UUID userMessageUuid = insertUserMessage(conversationId, message);
+        return chatStreamer.stream(onDelta -> {
+            try {
+                return persistReply(conversationId, userMessageUuid, () -> chatService.answerStream(message, onDelta));
+            } catch (RuntimeException e) {
+                messageRepository.deleteById(userMessageUuid);
+                throw e;
+            }
+        });
+    }
+
+    /** Whether {@link #enqueueMessageToConversation} is available ({@code chat.jobs.enabled}). */
+    public boolean asyncEnabled() {
+        return chatJobs.getIfAvailable() != null;
+    }
+
+    /**
+     * Async variant of {@link #addMessageToConversation}: stores the user message and queues the answer as a
+     * {@link ChatJobQueue} job, whose id is returned; a {@link ChatJobWorker} stores the assistant message. A
+     * retry of a message whose job is still queued, running or done gets that job's id; a message answered
+     * outside the queue gets a job that is already done.
+     */
+    public String enqueueMessageToConversation(UUID conversationId, String message) {
+        ChatJobQueue queue = chatJobs.getObject();
+        String jobId = UUID.randomUUID().toString();
+        String existing = queue.reserve(conversationId, message, jobId, currentAuthUser());
+        if (existing != null) {
+            log.info("Duplicate detected for conversation {}, returning job {}", conversationId, existing);
+            return existing;
+        }
+        UUID userMessageUuid = null;
+        try {
+            Optional<ConversationResult> duplicate = checkForDuplicatedMessage(conversationId, message);
+            if (duplicate.isPresent()) {
+                return queue.completed(jobId, currentAuthUser(), duplicate.get());
+            }
+            userMessageUuid = insertUserMessage(conversationId, message);
+            return queue.enqueue(new ChatJobQueue.Job(jobId, conversationId, userMessageUuid, message, currentAuthUser()));
+        } catch (RuntimeException e) {
+            if (userMessageUuid != null) messageRepository.deleteById(userMessageUuid);
+            queue.release(conversationId, message, jobId);
+            throw e;
+        }
+    }
+
+    /**
+     * Worker side of {@link #enqueueMessageToConversation}; on failure the user message is removed, as for streams.
+     * Safe to run again: a job whose reply is already stored (the worker died before reporting it) returns that.
+     */
+    public ConversationResult runJob(ChatJobQueue.Job job) {
+        Optional<MessageEntity> reply = messageRepository.findTopByReplyToMessageIdOrderByCreatedAtDesc(job.userMessageId());
+        if (reply.isPresent()) return toResult(reply.get());
+        if (!messageRepository.existsById(job.userMessageId())) {
+            throw new IllegalStateException("The message was withdrawn after an earlier attempt failed");
+        }
+        try {
+            return persistReply(job.conversationId(), job.userMessageId(), () -> chatService.answer(job.message()));
+        } catch (RuntimeException e) {
+            messageRepository.deleteById(job.userMessageId());
+            throw e;
+        }
+    }
+
+    /**
+     * Status of a queued job, waiting up to {@code waitMs} for it to finish.
+     * @throws IllegalArgumentException if there is no such job for the current user
+     */
+    public CompletableFuture<Map<String, Object>> awaitJob(String jobId, long waitMs) {
+        ChatJobQueue queue = chatJobs.getObject();
+        ChatJobQueue.Status status = queue.status(jobId);
+        var user = currentAuthUser();
+        if (status == null || user == null || !user.id().equals(status.userId())) {
+            throw new IllegalArgumentException("Job not found");
+        }
+        return queue.await(jobId, waitMs).thenApply(s -> {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("jobId", jobId);
+            result.put("status", s != null ? s.state().name() : "expired");
+            if (s != null && s.result() != null) result.put("result", s.result());
+            if (s != null && s.error() != null) result.put("error", s.error());
+            return result;
+        });
+    }
+
+    private ConversationResult persistReply(UUID conversationId, UUID userMessageUuid, Supplier<Map<String, Object>> chat) {
         long t0 = System.currentTimeMillis();
-        Map<String,Object> llmResponse = chatService.answer(message); // returns {answer, role, citations[]}
+        Map<String,Object> llmResponse = chat.get(); // returns {answer, role, citations[]}
         long latency = System.currentTimeMillis() - t0;
         String answer = Objects.toString(llmResponse.get("answer"), "");
         MessageEntity assistantMessageEntity = insertAssistantMessage(conversationId, userMessageUuid, latency, answer);
@@ -116,23 +233,35 @@ public class ConversationService {
                 assistantMessageEntity.getIdempotencyKey().toString(),
                 latency,
                 Objects.toString(llmResponse.get("role"), ""),
-                Instant.now()
+                Instant.now(),
+                (Integer) llmResponse.get("context_tokens")
         );
     }
 
 
 
+    /**
+     * The reply to an earlier identical message in the conversation, if there is one.
+     * @throws ResponseStatusException 409 if that message is stored but still being answered (a stream or job
+     *         in progress; the blocking call's transaction keeps its row invisible until the reply exists)
+     */
     private Optional<ConversationResult> checkForDuplicatedMessage(UUID conversationId, String message) {
         Optional<MessageEntity> existingUserMsg =
                 messageRepository.findTopByConversationIdAndContentOrderByCreatedAtDesc(
                         conversationId, message);
         if (existingUserMsg.isPresent()) {
-            log.info("Duplicate detected for conversation {} input='{}', returning previous answer",
-                    conversationId, message);
-            MessageEntity lastAssistant = messageRepository
-                    .findTopByConversationIdAndRoleOrderByCreatedAtDesc(conversationId, MessageEntity.Role.assistant)
-                    .orElseThrow(() -> new IllegalArgumentException("No assistant message found for conversation"));
-            return Optional.of(toResult(lastAssistant));
+            MessageEntity userMsg = existingUserMsg.get();
+            Optional<MessageEntity> reply = messageRepository.findTopByReplyToMessageIdOrderByCreatedAtDesc(userMsg.getId());
+            if (reply.isPresent()) {
+                log.info("Duplicate detected for conversation {} input='{}', returning previous answer",
+                        conversationId, message);
+                return Optional.of(toResult(reply.get()));
+            }
+            // an unanswered message older than that was left by a crashed request: ask again
+            if (userMsg.getCreatedAt().isAfter(Instant.now().minus(PENDING_WINDOW))) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT,
+                        "An identical message in this conversation is still being answered");
+            }
         }
         return Optional.empty();
     }
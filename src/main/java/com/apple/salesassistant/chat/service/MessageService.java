@@ -3,12 +3,14 @@ package com.apple.salesassistant.chat.service;
 import com.apple.salesassistant.chat.dto.ConversationResult;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 @Slf4j
 @Service
@@ -16,15 +18,27 @@ public class MessageService {
 
     private final ChatService chatService;
 
-    public MessageService(ChatService chatService) {
+    private final ChatStreamer chatStreamer;
+
+    public MessageService(ChatService chatService, ChatStreamer chatStreamer) {
         this.chatService = chatService;
+        this.chatStreamer = chatStreamer;
     }
 
     public record AppendResult(String assistantText, Instant assistantCreatedAt) {}
 
     public ConversationResult replyToMessage(String guestMessage) {
+        return reply(() -> chatService.answer(guestMessage));
+    }
+
+    /** Streams the reply as server-sent events; see {@link ChatStreamer} for the event format. */
+    public SseEmitter streamReply(String guestMessage) {
+        return chatStreamer.stream(onDelta -> reply(() -> chatService.answerStream(guestMessage, onDelta)));
+    }
+
+    private ConversationResult reply(Supplier<Map<String, Object>> chat) {
         long start = System.currentTimeMillis();
-        Map<String, Object> llmResponse = chatService.answer(guestMessage);
+        Map<String, Object> llmResponse = chat.get();
         long latency = System.currentTimeMillis() - start;
 
         UUID requestId = UUID.randomUUID();
@@ -36,7 +50,8 @@ public class MessageService {
                 requestId.toString(),
                 latency,
                 "ROLE_GUEST",
-                Instant.now()
+                Instant.now(),
+                (Integer) llmResponse.get("context_tokens")
         );
 
     }
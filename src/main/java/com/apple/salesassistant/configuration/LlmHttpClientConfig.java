@@ -0,0 +1,161 @@
+package com.apple.salesassistant.configuration;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One {@link RestTemplate} per LLM provider, each on its own JDK {@link HttpClient}: connections are kept alive
+ * and reused, and with {@code HTTP_2} concurrent calls are multiplexed over one TLS connection instead of a
+ * handshake each. {@code timeoutSeconds} of the provider bounds the wait for the response headers (the first
+ * token when streaming); the body of a stream may take longer.
+ * <p>
+ * The JDK client does not cap its pool, so {@link ConnectionLimiter} admits at most {@code http.max-connections}
+ * requests at a time per provider and publishes {@code llm.http.pool.*} meters tagged {@code provider}.
+ */
+@Configuration
+public class LlmHttpClientConfig {
+
+    @Bean
+    public RestTemplate ollamaRestTemplate(RestTemplateBuilder builder, OllamaConfig config, MeterRegistry meters,
+                                           Environment env) {
+        return build(builder, "ollama", config.http(), config.timeoutSeconds(), meters, virtualThreads(env));
+    }
+
+    @Bean
+    public RestTemplate openAiRestTemplate(RestTemplateBuilder builder, OpenAiConfig config, MeterRegistry meters,
+                                           Environment env) {
+        return build(builder, "openai", config.http(), config.timeoutSeconds(), meters, virtualThreads(env));
+    }
+
+    private static boolean virtualThreads(Environment env) {
+        return Boolean.parseBoolean(env.getProperty("spring.threads.virtual.enabled", "false"));
+    }
+
+    static RestTemplate build(RestTemplateBuilder builder, String provider, LlmHttpProps http,
+                              int timeoutSeconds, MeterRegistry meters, boolean virtualThreads) {
+        HttpClient.Builder client = HttpClient.newBuilder()
+                .version(http.version())
+                .connectTimeout(Duration.ofSeconds(http.connectTimeoutSeconds()));
+        // the client's own async work (body handlers, HTTP/2 streams); the calling thread just blocks in send()
+        if (virtualThreads) client.executor(Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name(provider + "-http-", 0).factory()));
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(client.build());
+        if (timeoutSeconds > 0) factory.setReadTimeout(Duration.ofSeconds(timeoutSeconds));
+        return builder
+                .requestFactory(() -> factory)
+                .additionalInterceptors(new ConnectionLimiter(provider, http, meters))
+                .additionalMessageConverters(new StringHttpMessageConverter(StandardCharsets.UTF_8))
+                .build();
+    }
+
+    /**
+     * Holds a permit from request start until the response is closed, so a streamed completion counts
+     * for its whole duration. Requests wait up to the connect timeout for a permit, then fail.
+     */
+    static final class ConnectionLimiter implements ClientHttpRequestInterceptor {
+
+        private final String provider;
+        private final Semaphore permits;
+        private final Duration maxWait;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Timer acquire;
+
+        ConnectionLimiter(String provider, LlmHttpProps http, MeterRegistry meters) {
+            this.provider = provider;
+            this.permits = new Semaphore(http.maxConnections(), true);
+            this.maxWait = Duration.ofSeconds(http.connectTimeoutSeconds());
+            Gauge.builder("llm.http.pool.active", active, AtomicInteger::get)
+                    .description("LLM requests in flight").tag("provider", provider).register(meters);
+            Gauge.builder("llm.http.pool.pending", pending, AtomicInteger::get)
+                    .description("LLM requests waiting for a connection slot").tag("provider", provider).register(meters);
+            // strong: gauges only hold weak references, and nothing else keeps the props object alive
+            Gauge.builder("llm.http.pool.max", http, h -> h.maxConnections()).strongReference(true)
+                    .description("Configured LLM connection slots").tag("provider", provider).register(meters);
+            this.acquire = Timer.builder("llm.http.pool.acquire")
+                    .description("Wait for an LLM connection slot").tag("provider", provider).register(meters);
+        }
+
+        @Override
+        public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+                throws IOException {
+            acquire();
+            try {
+                return new Releasing(execution.execute(request, body));
+            } catch (IOException | RuntimeException e) {
+                release();
+                throw e;
+            }
+        }
+
+        private void acquire() throws IOException {
+            long start = System.nanoTime();
+            pending.incrementAndGet();
+            try {
+                if (!permits.tryAcquire(maxWait.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new IOException("No free %s connection slot within %ss".formatted(provider, maxWait.toSeconds()));
+                }
+                active.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for a " + provider + " connection slot", e);
+            } finally {
+                pending.decrementAndGet();
+                acquire.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void release() {
+            active.decrementAndGet();
+            permits.release();
+        }
+
+        /** Releases the permit exactly once, on the first {@code close}. */
+        private final class Releasing implements ClientHttpResponse {
+            private final ClientHttpResponse delegate;
+            private final AtomicBoolean closed = new AtomicBoolean();
+
+            Releasing(ClientHttpResponse delegate) { this.delegate = delegate; }
+
+            @Override public HttpStatusCode getStatusCode() throws IOException { return delegate.getStatusCode(); }
+            @Override public String getStatusText() throws IOException { return delegate.getStatusText(); }
+            @Override public HttpHeaders getHeaders() { return delegate.getHeaders(); }
+            @Override public InputStream getBody() throws IOException { return delegate.getBody(); }
+
+            @Override
+            public void close() {
+                if (!closed.compareAndSet(false, true)) return;
+                try {
+                    delegate.close();
+                } finally {
+                    release();
+                }
+            }
+        }
+    }
+}
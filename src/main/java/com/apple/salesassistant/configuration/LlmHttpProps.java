@@ -0,0 +1,23 @@
+package com.apple.salesassistant.configuration;
+
+import java.net.http.HttpClient;
+
+/**
+ * Outbound HTTP settings of one LLM provider ({@code ollama.http.*}, {@code openai.http.*}).
+ * @param version               {@code HTTP_2} negotiates h2 over TLS (ALPN) and falls back to 1.1; use {@code HTTP_1_1} for plain-http servers
+ * @param maxConnections        concurrent requests allowed against the provider; size it to the provider's own limit
+ * @param connectTimeoutSeconds TCP/TLS connect timeout, also the longest wait for a free slot
+ */
+public record LlmHttpProps(
+        HttpClient.Version version,
+        Integer maxConnections,
+        Integer connectTimeoutSeconds
+) {
+    public static final LlmHttpProps DEFAULTS = new LlmHttpProps(null, null, null);
+
+    public LlmHttpProps {
+        if (version == null) version = HttpClient.Version.HTTP_2;
+        if (maxConnections == null) maxConnections = 16;
+        if (connectTimeoutSeconds == null) connectTimeoutSeconds = 5;
+    }
+}
@@ -6,5 +6,13 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 public record OllamaConfig(
         String baseUrl,
         String model,
-        int timeoutSeconds
-) {}
+        String embeddingModel,
+        int timeoutSeconds,
+        LlmHttpProps http,
+        String keepAlive,       // how long the server keeps the model (and its prompt cache) loaded, e.g. 30m
+        Integer numCtx          // context window; a request with a different one reloads the model
+) {
+    public OllamaConfig {
+        if (http == null) http = LlmHttpProps.DEFAULTS;
+    }
+}
@@ -8,6 +8,11 @@ public record OpenAiConfig(
         String baseUrl,
 
         String model,
-        int timeoutSeconds
-) {}
+        int timeoutSeconds,
+        LlmHttpProps http
+) {
+    public OpenAiConfig {
+        if (http == null) http = LlmHttpProps.DEFAULTS;
+    }
+}
 
@@ -3,6 +3,7 @@ package com.apple.salesassistant.configuration;
 import com.apple.salesassistant.auth.api.filter.JwtAuthFilter;
 import com.apple.salesassistant.auth.handler.LoggingAccessDeniedHandler;
 import com.apple.salesassistant.auth.handler.LoggingAuthenticationEntryPoint;
+import jakarta.servlet.DispatcherType;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -33,6 +34,10 @@ public class SecurityConfig {
             .authorizeHttpRequests(auth -> auth
                     .requestMatchers("/v1/auth/**").permitAll()
                     .requestMatchers("/error", "/error/**").permitAll()
+                    // Health checks carry no token; /actuator/prometheus (provider, model, KB details) needs one
+                    .requestMatchers("/actuator/health").permitAll()
+                    // Streamed (SSE) responses finish on an async dispatch; the request itself was already authorized
+                    .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                     // Allow anonymous guests to ask a question
                     .requestMatchers(HttpMethod.POST, "/v1/messages:complete").permitAll()
                     // Everything else requires authentication
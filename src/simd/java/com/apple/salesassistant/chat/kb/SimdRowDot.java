@@ -0,0 +1,64 @@
+package com.apple.salesassistant.chat.kb;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Vector API kernel reading rows straight from the off-heap matrix. This is the only class that needs
+ * {@code --enable-preview --add-modules jdk.incubator.vector}, so it lives in its own source set
+ * ({@code src/simd}) compiled with them and {@link EmbeddingMatrix} loads it by name; without the JVM flags it
+ * fails to load and scoring falls back to {@link ScalarRowDot}.
+ */
+final class SimdRowDot implements RowDot {
+
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+  private final MemorySegment data;
+  private final int dim;
+  private final int upper;
+
+  SimdRowDot(ByteBuffer data, int dim) {
+    this.data = MemorySegment.ofBuffer(data);
+    this.dim = dim;
+    this.upper = SPECIES.loopBound(dim);
+  }
+
+  @Override
+  public float dot(int row, float[] q) {
+    long base = (long) row * dim * Float.BYTES;
+    var acc = FloatVector.zero(SPECIES);
+    int i = 0;
+    for (; i < upper; i += SPECIES.length()) {
+      var a = FloatVector.fromMemorySegment(SPECIES, data, base + (long) i * Float.BYTES, ByteOrder.nativeOrder());
+      acc = a.fma(FloatVector.fromArray(SPECIES, q, i), acc);
+    }
+    float sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; i < dim; i++) sum += data.getAtIndex(ValueLayout.JAVA_FLOAT_UNALIGNED, base / Float.BYTES + i) * q[i];
+    return sum;
+  }
+
+  @Override
+  public float dot(int a, int b) {
+    long baseA = (long) a * dim * Float.BYTES, baseB = (long) b * dim * Float.BYTES;
+    var acc = FloatVector.zero(SPECIES);
+    int i = 0;
+    for (; i < upper; i += SPECIES.length()) {
+      long off = (long) i * Float.BYTES;
+      var x = FloatVector.fromMemorySegment(SPECIES, data, baseA + off, ByteOrder.nativeOrder());
+      var y = FloatVector.fromMemorySegment(SPECIES, data, baseB + off, ByteOrder.nativeOrder());
+      acc = x.fma(y, acc);
+    }
+    float sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; i < dim; i++) {
+      sum += data.getAtIndex(ValueLayout.JAVA_FLOAT_UNALIGNED, baseA / Float.BYTES + i)
+           * data.getAtIndex(ValueLayout.JAVA_FLOAT_UNALIGNED, baseB / Float.BYTES + i);
+    }
+    return sum;
+  }
+}
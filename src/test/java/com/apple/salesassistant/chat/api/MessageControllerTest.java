@@ -1,17 +1,23 @@
 package com.apple.salesassistant.chat.api;
 
 import com.apple.salesassistant.chat.dto.ConversationResult;
+import com.apple.salesassistant.chat.llm.LlmOverloadedException;
+import com.apple.salesassistant.chat.service.ChatStreamer;
 import com.apple.salesassistant.chat.service.MessageService;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.time.Instant;
 import java.util.Map;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.mockito.ArgumentMatchers.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -35,4 +41,55 @@ class MessageControllerTest {
         .andExpect(status().isOk())
         .andExpect(jsonPath("$.answer").value("HELLO"));
   }
+
+  @Test
+  void completeGuestMessage_providerBusy_returns429WithRetryAfter() throws Exception {
+    var mockSvc = Mockito.mock(MessageService.class);
+    Mockito.when(mockSvc.replyToMessage(anyString())).thenThrow(new LlmOverloadedException("ollama", 3));
+
+    MockMvc mvc = MockMvcBuilders
+        .standaloneSetup(new MessageController(mockSvc))
+        .build();
+
+    mvc.perform(post("/v1/messages:complete")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("""
+                     {"message":"Hi"}
+                     """))
+        .andExpect(status().isTooManyRequests())
+        .andExpect(header().string("Retry-After", "3"));
+  }
+
+  @Test
+  void streamGuestMessage_sendsDeltasThenResult() throws Exception {
+    var streamer = new ChatStreamer(new MockEnvironment());
+    var mockSvc = Mockito.mock(MessageService.class);
+    Mockito.when(mockSvc.streamReply(anyString())).thenAnswer(inv -> streamer.stream(onDelta -> {
+      onDelta.accept("HEL");
+      onDelta.accept(" LO");
+      return new ConversationResult("122", "HEL LO", "111", 100, "ROLE_GUEST", Instant.now());
+    }));
+
+    MockMvc mvc = MockMvcBuilders
+        .standaloneSetup(new MessageController(mockSvc))
+        .build();
+
+    MvcResult started = mvc.perform(post("/v1/messages:complete")
+            .contentType(MediaType.APPLICATION_JSON)
+            .accept(MediaType.TEXT_EVENT_STREAM)
+            .content("""
+                     {"message":"Hi"}
+                     """))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    started.getAsyncResult(5000);
+
+    mvc.perform(asyncDispatch(started))
+        .andExpect(status().isOk())
+        .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+        .andExpect(content().string(containsString(
+            "event:delta\ndata:{\"text\":\"HEL\"}\n\n"
+            + "event:delta\ndata:{\"text\":\" LO\"}\n\n"
+            + "event:done\ndata:{\"conversationId\":\"122\",\"answer\":\"HEL LO\"")));
+  }
 }
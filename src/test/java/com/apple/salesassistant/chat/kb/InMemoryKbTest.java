@@ -0,0 +1,116 @@
+package com.apple.salesassistant.chat.kb;
+
+import com.apple.salesassistant.auth.dto.UserContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InMemoryKbTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void reloadRechunksOnlyChangedSectionsAndSwapsSnapshot() throws Exception {
+    Path file = dir.resolve("kb.txt");
+    Files.writeString(file, """
+        # iPhone Details — FY2023
+        Units: 219.0M
+
+        # Mac Details — FY2023
+        Units: 21.1M
+        """);
+    var kb = new InMemoryKb(new DefaultResourceLoader(), new MockEnvironment()
+            .withProperty("kb.file-path", file.toUri().toString()));
+    kb.load();
+    KbSnapshot v1 = kb.snapshot();
+    assertThat(kb.reload()).isFalse();
+
+    Files.writeString(file, """
+        # iPhone Details — FY2023
+        Units: 219.0M
+
+        # Mac Details — FY2023
+        Units: 22.0M
+        """);
+    assertThat(kb.reload()).isTrue();
+    KbSnapshot v2 = kb.snapshot();
+
+    assertThat(v2.version()).isEqualTo(v1.version() + 1);
+    assertThat(v2.chunks().get(0)).isSameAs(v1.chunks().get(0));
+    assertThat(v2.chunks().get(1)).isNotEqualTo(v1.chunks().get(1));
+    assertThat(v2.index().postings("22.0m").size()).isEqualTo(1);
+    // a request still holding v1 is unaffected
+    assertThat(v1.chunks().get(1).text()).contains("21.1M");
+    assertThat(v1.index().postings("22.0m").size()).isZero();
+  }
+
+  @Test
+  void ingestsDirectoryWithRelativeDocIdsAndDeterministicChunkIds() throws Exception {
+    String section = """
+        # Services Summary — FY2024
+        Revenue: 96.2B
+        """;
+    Files.createDirectories(dir.resolve("amer"));
+    Files.createDirectories(dir.resolve("emea"));
+    Files.writeString(dir.resolve("amer/services.md"), section);
+    Files.writeString(dir.resolve("emea/services.md"), section);
+    Files.writeString(dir.resolve("emea/notes.txt"), "# Mac Details\nUnits: 22.0M\n");
+
+    var env = new MockEnvironment().withProperty("kb.path", dir.toUri().toString());
+    var first = new InMemoryKb(new DefaultResourceLoader(), env);
+    first.load();
+    var second = new InMemoryKb(new DefaultResourceLoader(), env);
+    second.load();
+
+    assertThat(first.all()).extracting(KbChunk::docId)
+            .containsExactly("amer/services.md", "emea/notes.txt", "emea/services.md");
+    // same text in two documents still yields distinct, reproducible IDs
+    assertThat(first.all().get(0).chunkId()).isNotEqualTo(first.all().get(2).chunkId());
+    assertThat(first.all()).extracting(KbChunk::chunkId)
+            .containsExactlyElementsOf(second.all().stream().map(KbChunk::chunkId).toList());
+
+    var glob = new InMemoryKb(new DefaultResourceLoader(), new MockEnvironment()
+            .withProperty("kb.path", dir.toUri() + "**/*.md"));
+    glob.load();
+    assertThat(glob.all()).extracting(KbChunk::docId).containsExactly("amer/services.md", "emea/services.md");
+  }
+
+  @Test
+  void compiledSegmentServesSameChunksAndPostingsAsText() throws Exception {
+    Path seg = dir.resolve("kb.seg");
+    KbSegmentCompiler.main(new String[]{"src/main/resources/kb/kb.txt", seg.toString(), "180", "20"});
+
+    var text = new InMemoryKb(new DefaultResourceLoader(), new MockEnvironment());
+    text.load();
+    var env = new MockEnvironment()
+            .withProperty("kb.format", "segment")
+            .withProperty("kb.segment-path", seg.toUri().toString());
+    var mapped = new InMemoryKb(new DefaultResourceLoader(), env);
+    mapped.load();
+
+    KbSnapshot a = text.snapshot(), b = mapped.snapshot();
+    assertThat(b.fingerprint()).isEqualTo(a.fingerprint());
+    assertThat(b.chunks()).containsExactlyElementsOf(a.chunks());
+    assertThat(b.index().terms()).isEqualTo(a.index().terms());
+    for (String term : List.of("iphone", "revenue", "churn", "fy2024", "missing")) {
+      assertThat(b.index().postings(term).docs()).isEqualTo(a.index().postings(term).docs());
+      assertThat(b.index().postings(term).bodyFreq()).isEqualTo(a.index().postings(term).bodyFreq());
+    }
+
+    var analyst = new UserContext("u2", "t1", Set.of("ROLE_ANALYST"), Set.of(), Set.of());
+    var scorers = List.<KbScorer>of(new Bm25Scorer(env));
+    assertThat(new KbRetriever(mapped, scorers, null, env, new SimpleMeterRegistry()).topK("iPhone units FY2024", analyst))
+            .isEqualTo(new KbRetriever(text, scorers, null, env, new SimpleMeterRegistry()).topK("iPhone units FY2024", analyst));
+    assertThat(mapped.reload()).isFalse();
+  }
+}
@@ -0,0 +1,35 @@
+package com.apple.salesassistant.chat.kb;
+
+import com.apple.salesassistant.chat.llm.TokenEstimator;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KbChunkerTest {
+
+  @Test
+  void cutsLongSectionsByTokenBudgetWithOverlap() throws Exception {
+    String body = IntStream.range(0, 40)
+            .mapToObj(p -> IntStream.range(0, 12).mapToObj(w -> "w%d_%d".formatted(p, w)).collect(Collectors.joining(" ")))
+            .collect(Collectors.joining("\n\n"));
+    var chunks = new KbChunker(60, 10).chunkAll("regions/emea.md",
+            new StringReader("# Intro\nshort\n\n# EMEA Details — FY2024\n" + body + "\n"));
+
+    assertThat(chunks.getFirst().text()).isEqualTo("short");
+    var emea = chunks.stream().filter(c -> c.title().startsWith("EMEA")).toList();
+    assertThat(emea).hasSizeGreaterThan(5)
+            .allMatch(c -> TokenEstimator.estimate(c.text()) <= 60)
+            .allMatch(c -> c.docId().equals("regions/emea.md"));
+    for (int i = 1; i < emea.size(); i++) {
+      String prev = emea.get(i - 1).text();
+      String lastWord = prev.substring(prev.lastIndexOf(' ') + 1);
+      assertThat(emea.get(i).text()).contains(lastWord);
+    }
+    String all = emea.stream().map(KbChunk::text).collect(Collectors.joining(" "));
+    assertThat(all).contains("w0_0", "w39_11");
+  }
+}
@@ -0,0 +1,52 @@
+package com.apple.salesassistant.chat.kb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KbFileWatcherTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void reloadsOnChangesInSubdirectoriesIncludingNewOnes() throws Exception {
+    Files.createDirectories(dir.resolve("amer"));
+    Files.writeString(dir.resolve("amer/iphone.md"), "# iPhone Details\nUnits: 219.0M\n");
+    var env = new MockEnvironment()
+            .withProperty("kb.path", dir.toUri().toString())
+            .withProperty("kb.reload.debounce-ms", "50");
+    var kb = new InMemoryKb(new DefaultResourceLoader(), env);
+    kb.load();
+    var watcher = new KbFileWatcher(kb, new DefaultResourceLoader(), env);
+    watcher.start();
+    try {
+      Files.writeString(dir.resolve("amer/iphone.md"), "# iPhone Details\nUnits: 220.0M\n");
+      awaitTerm(kb, "220.0m");
+
+      Files.createDirectories(dir.resolve("emea"));
+      Files.writeString(dir.resolve("emea/mac.md"), "# Mac Details\nUnits: 22.0M\n");
+      awaitTerm(kb, "22.0m");
+      // a file edited in the new directory is seen too
+      Files.writeString(dir.resolve("emea/mac.md"), "# Mac Details\nUnits: 23.0M\n");
+      awaitTerm(kb, "23.0m");
+      assertThat(kb.all()).extracting(KbChunk::docId).containsExactly("amer/iphone.md", "emea/mac.md");
+    } finally {
+      watcher.stop();
+    }
+  }
+
+  private static void awaitTerm(InMemoryKb kb, String term) throws InterruptedException {
+    for (long deadline = System.currentTimeMillis() + 10_000; System.currentTimeMillis() < deadline; ) {
+      if (kb.snapshot().index().postings(term).size() > 0) return;
+      Thread.sleep(20);
+    }
+    assertThat(kb.snapshot().index().postings(term).size()).as("chunks with " + term).isPositive();
+  }
+}
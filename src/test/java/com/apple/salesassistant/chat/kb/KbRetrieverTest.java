@@ -0,0 +1,280 @@
+package com.apple.salesassistant.chat.kb;
+
+import com.apple.salesassistant.auth.dto.UserContext;
+import com.apple.salesassistant.chat.llm.EmbeddingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KbRetrieverTest {
+
+  private static final UserContext GUEST = new UserContext("guest", "t1", Set.of("ROLE_GUEST"), Set.of(), Set.of());
+  private static final UserContext ANALYST = new UserContext("u2", "t1", Set.of("ROLE_ANALYST"), Set.of(), Set.of());
+
+  private MockEnvironment env;
+  private InMemoryKb kb;
+  private KbRetriever retriever;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    env = new MockEnvironment().withProperty("kb.top-k", "3");
+    kb = new InMemoryKb(new DefaultResourceLoader(), env);
+    kb.load();
+    retriever = retriever(env);
+  }
+
+  private KbRetriever retriever(MockEnvironment env) {
+    return new KbRetriever(kb, List.of(new Bm25Scorer(env), new OverlapScorer()), null, env, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void hybridFusesLexicalAndVectorRankingsAndRecordsLatency() throws Exception {
+    var env = new MockEnvironment()
+            .withProperty("kb.top-k", "3")
+            .withProperty("kb.retrieval-mode", "hybrid")
+            .withProperty("kb.vector.embedder", "hashing");
+    var embeddings = new EmbeddingService(null, env);
+    var kb = new InMemoryKb(new DefaultResourceLoader(), env, embeddings);
+    kb.load();
+    var meters = new SimpleMeterRegistry();
+    var hybrid = new KbRetriever(kb, List.of(new Bm25Scorer(env)), new VectorRetriever(kb, embeddings), env, meters);
+
+    var top = hybrid.topK("iPhone details units", ANALYST);
+    assertThat(top).hasSize(3).doesNotHaveDuplicates();
+    assertThat(top.getFirst().title()).startsWith("iPhone Details");
+    assertThat(hybrid.topK("iPhone details units", GUEST)).allMatch(c -> c.minRole() == KbChunk.MinRole.GUEST);
+    for (String r : List.of("lexical", "vector", "hybrid")) {
+      assertThat(meters.get("kb.retrieval").tag("retriever", r).timer().count()).isEqualTo(2);
+    }
+    hybrid.shutdown();
+  }
+
+  @Test
+  void hybridFallsBackToLexicalWhenTheVectorSideFailsOrIsLateAndDoesNotCacheIt() throws Exception {
+    var env = new MockEnvironment()
+            .withProperty("kb.top-k", "3")
+            .withProperty("kb.retrieval-mode", "hybrid")
+            .withProperty("kb.hybrid.dense-timeout-ms", "50");
+    var lexical = retriever.topK("iPhone details units", ANALYST);
+    var meters = new SimpleMeterRegistry();
+    // the KB was loaded without embeddings, so the vector side throws
+    var failing = new KbRetriever(kb, List.of(new Bm25Scorer(env)), new VectorRetriever(kb, null), env, meters);
+    assertThat(failing.topK("iPhone details units", ANALYST)).isEqualTo(lexical);
+    assertThat(failing.topK("iPhone details units", ANALYST)).isEqualTo(lexical);
+    assertThat(meters.get("kb.hybrid.fallback").tag("reason", "error").counter().count()).isEqualTo(2);
+    failing.shutdown();
+
+    var interrupted = new java.util.concurrent.CountDownLatch(1);
+    var slow = new KbRetriever(kb, List.of(new Bm25Scorer(env)), new VectorRetriever(kb, null) {
+      @Override
+      List<KbChunk> topK(KbSnapshot snapshot, String query, UserContext user, int k) {
+        try {
+          Thread.sleep(5_000);
+        } catch (InterruptedException e) {
+          interrupted.countDown();
+        }
+        return List.of();
+      }
+    }, env, meters);
+    long t0 = System.nanoTime();
+    assertThat(slow.topK("iPhone details units", ANALYST)).isEqualTo(lexical);
+    assertThat(Duration.ofNanos(System.nanoTime() - t0)).isLessThan(Duration.ofSeconds(2));
+    assertThat(meters.get("kb.hybrid.fallback").tag("reason", "timeout").counter().count()).isEqualTo(1);
+    // the late task was cancelled, so it no longer holds a pool thread
+    assertThat(interrupted.await(2, java.util.concurrent.TimeUnit.SECONDS)).isTrue();
+    slow.shutdown();
+  }
+
+  @Test
+  void hybridFallsBackToLexicalWhenThePoolAndItsQueueAreFull() throws Exception {
+    var env = new MockEnvironment()
+            .withProperty("kb.top-k", "3")
+            .withProperty("kb.retrieval-mode", "hybrid")
+            .withProperty("kb.hybrid.threads", "1")
+            .withProperty("kb.hybrid.queue", "0")
+            .withProperty("kb.cache.enabled", "false");
+    var lexical = retriever.topK("iPhone details units", ANALYST);
+    var started = new java.util.concurrent.CountDownLatch(1);
+    var release = new java.util.concurrent.CountDownLatch(1);
+    var meters = new SimpleMeterRegistry();
+    var stalled = new KbRetriever(kb, List.of(new Bm25Scorer(env)), new VectorRetriever(kb, null) {
+      @Override
+      List<KbChunk> topK(KbSnapshot snapshot, String query, UserContext user, int k) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return List.of();
+      }
+    }, env, meters);
+    var first = java.util.concurrent.CompletableFuture.supplyAsync(() -> stalled.topK("iPhone details units", ANALYST));
+    assertThat(started.await(5, java.util.concurrent.TimeUnit.SECONDS)).isTrue();
+
+    assertThat(stalled.topK("iPhone details units", ANALYST)).isEqualTo(lexical);
+    assertThat(meters.get("kb.hybrid.fallback").tag("reason", "rejected").counter().count()).isEqualTo(1);
+    release.countDown();
+    assertThat(first.get(5, java.util.concurrent.TimeUnit.SECONDS)).isNotEmpty();
+    stalled.shutdown();
+  }
+
+  @Test
+  void indexPostingsPointAtChunksContainingTheTerm() {
+    var p = kb.snapshot().index().postings("iphone");
+    assertThat(p.size()).isPositive();
+    for (int i = 0; i < p.size(); i++) {
+      var c = kb.all().get(p.docs()[i]);
+      assertThat((c.title() + " " + c.text()).toLowerCase()).contains("iphone");
+    }
+    assertThat(kb.snapshot().index().postings("no-such-term").size()).isZero();
+  }
+
+  @Test
+  void tokenizerResolvesDistinctLowercaseTermIdsWithoutStopWords() {
+    var index = kb.snapshot().index();
+    int[] ids = KbTokenizer.termIds("The iPhone, IPHONE and x units of FY2024; zzzunknown", index);
+    assertThat(ids).containsExactly(
+            index.termId("iphone".toCharArray(), 6),
+            index.termId("units".toCharArray(), 5),
+            index.termId("fy2024".toCharArray(), 6));
+    assertThat(index.termId("the".toCharArray(), 3)).isEqualTo(-1);
+  }
+
+  @Test
+  void cachesByNormalizedTermsAndProfileAndDropsEntriesOnReload(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("kb.txt");
+    Files.writeString(file, Files.readString(Path.of("src/main/resources/kb/kb.txt")));
+    var env = new MockEnvironment().withProperty("kb.top-k", "3").withProperty("kb.path", file.toUri().toString());
+    var kb = new InMemoryKb(new DefaultResourceLoader(), env);
+    kb.load();
+    var meters = new SimpleMeterRegistry();
+    var cached = new KbRetriever(kb, List.of(new Bm25Scorer(env)), null, env, meters);
+
+    var first = cached.topK("iPhone units details", ANALYST);
+    assertThat(cached.topK("details of IPHONE units?", ANALYST)).isSameAs(first);
+    assertThat(cached.topK("iPhone units details", GUEST)).isNotSameAs(first);
+    assertThat(meters.get("cache.gets").tag("cache", "kb.retrieval").tag("result", "hit").functionCounter().count())
+            .isEqualTo(1);
+    assertThat(meters.get("cache.gets").tag("cache", "kb.retrieval").tag("result", "miss").functionCounter().count())
+            .isEqualTo(2);
+    // no terms at all: never cached, so such queries cannot share one empty key
+    cached.topK("is it in the", ANALYST);
+    cached.topK("is it in the", ANALYST);
+    assertThat(meters.get("cache.gets").tag("cache", "kb.retrieval").tag("result", "hit").functionCounter().count())
+            .isEqualTo(1);
+
+    kb.reload();   // unchanged text: same snapshot, entries stay
+    assertThat(cached.topK("iPhone units details", ANALYST)).isSameAs(first);
+
+    Files.writeString(file, Files.readString(Path.of("src/main/resources/kb/kb.txt")) + "\n# iPhone Details — FY2026\nUnits: 1.0M\n");
+    assertThat(kb.reload()).isTrue();
+    assertThat(cached.topK("iPhone units details", ANALYST)).isNotSameAs(first);
+  }
+
+  @Test
+  void embeddingModesKeyTheCacheByTheWholeQuery() {
+    var cache = new KbResultCache(100, Duration.ofMinutes(1), false, new SimpleMeterRegistry());
+    var profile = KbPolicy.AccessProfile.of(ANALYST);
+    var retrievals = new java.util.concurrent.atomic.AtomicInteger();
+    for (String q : List.of("iPhone units in APAC", "  iphone UNITS in apac ", "APAC iPhone units", "iPhone units APAC")) {
+      cache.get(kb.snapshot(), q, profile, () -> new KbResultCache.Retrieved(
+          List.of(kb.snapshot().chunks().get(retrievals.getAndIncrement())), false));
+    }
+    assertThat(retrievals).hasValue(3);   // only case and outer spaces are ignored
+    assertThat(cache.size()).isEqualTo(3);
+  }
+
+  @Test
+  void ranksTitleMatchesFirstAndLimitsToK() {
+    var top = retriever.topK("iPhone details units", ANALYST);
+    assertThat(top).hasSizeLessThanOrEqualTo(3);
+    assertThat(top.getFirst().title()).startsWith("iPhone Details");
+  }
+
+  @Test
+  void guestNeverReceivesAnalystChunks() {
+    var top = retriever.topK("iPhone details units", GUEST);
+    assertThat(top).allMatch(c -> c.minRole() == KbChunk.MinRole.GUEST);
+  }
+
+  @Test
+  void queryWithoutKnownTermsReturnsNothing() {
+    assertThat(retriever.topK("zzz qqq", ANALYST)).isEmpty();
+  }
+
+  @Test
+  void bm25RanksRareTermsAboveCommonOnes() {
+    // "revenue" appears in most sections, "churn" only in the Services deep dives;
+    // overlap scores both body hits the same, BM25 weighs the rare term higher
+    env.withProperty("kb.top-k", "20");
+    var overlap = retriever(env.withProperty("kb.scorer", "overlap")).topK("revenue churn", ANALYST);
+    var bm25 = retriever(env.withProperty("kb.scorer", "bm25")).topK("revenue churn", ANALYST);
+
+    assertThat(firstIndexOf(overlap, "Churn")).isGreaterThan(firstIndexOf(overlap, "Total revenue"));
+    assertThat(firstIndexOf(bm25, "Churn")).isLessThan(firstIndexOf(bm25, "Total revenue"));
+  }
+
+  private static int firstIndexOf(List<KbChunk> ranked, String text) {
+    for (int i = 0; i < ranked.size(); i++) if (ranked.get(i).text().contains(text)) return i;
+    throw new AssertionError("no chunk containing " + text);
+  }
+
+  @Test
+  void scorerIsSelectedByKey() {
+    var overlap = retriever(env.withProperty("kb.scorer", "overlap"));
+    assertThat(overlap.topK("iPhone details units", ANALYST).getFirst().title()).startsWith("iPhone Details");
+
+    assertThatThrownBy(() -> retriever(env.withProperty("kb.scorer", "nope")))
+            .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void heapSelectionMatchesFullSort() {
+    var bm25 = new Bm25Scorer(env);
+    for (String q : List.of("iPhone units FY2024", "services churn growth", "apac emea revenue", "mac")) {
+      for (UserContext user : List.of(GUEST, ANALYST)) {
+        assertThat(retriever.topK(q, user)).isEqualTo(fullSort(q, user, bm25, 3));
+      }
+    }
+  }
+
+  @Test
+  void visibilityBitsetMatchesPolicyAndIsCachedPerProfile() {
+    for (UserContext user : List.of(GUEST, ANALYST,
+            new UserContext("u9", "t1", Set.of("ROLE_ADMIN"), Set.of(), Set.of("apac")))) {
+      var profile = KbPolicy.AccessProfile.of(user);
+      var bits = kb.snapshot().visible(profile);
+      for (int ord = 0; ord < kb.all().size(); ord++) {
+        assertThat(bits.get(ord)).isEqualTo(KbPolicy.canSee(user, kb.all().get(ord)));
+      }
+      assertThat(kb.snapshot().visible(KbPolicy.AccessProfile.of(user))).isSameAs(bits);
+    }
+  }
+
+  /** Reference ranking: score everything, filter, sort, cut. */
+  private List<KbChunk> fullSort(String q, UserContext user, KbScorer scorer, int k) {
+    Map<Integer, Double> scores = new HashMap<>();
+    for (int id : KbTokenizer.termIds(q, kb.snapshot().index())) {
+      var p = kb.snapshot().index().postings(id);
+      for (int i = 0; i < p.size(); i++) scores.merge(p.docs()[i], scorer.score(kb.snapshot().index(), p, i), Double::sum);
+    }
+    return scores.entrySet().stream()
+            .filter(e -> KbPolicy.canSee(user, kb.all().get(e.getKey())))
+            .sorted(Map.Entry.<Integer, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+            .limit(k)
+            .map(e -> kb.all().get(e.getKey()))
+            .toList();
+  }
+}
@@ -0,0 +1,111 @@
+package com.apple.salesassistant.chat.kb;
+
+import com.apple.salesassistant.auth.dto.UserContext;
+import com.apple.salesassistant.chat.llm.EmbeddingService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class VectorRetrieverTest {
+
+  private static final UserContext GUEST = new UserContext("guest", "t1", Set.of("ROLE_GUEST"), Set.of(), Set.of());
+  private static final UserContext ANALYST = new UserContext("u2", "t1", Set.of("ROLE_ANALYST"), Set.of(), Set.of());
+
+  private InMemoryKb kb;
+  private VectorRetriever retriever;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    var env = new MockEnvironment()
+            .withProperty("kb.retrieval-mode", "vector")
+            .withProperty("kb.vector.embedder", "hashing");
+    var embeddings = new EmbeddingService(null, env);
+    kb = new InMemoryKb(new DefaultResourceLoader(), env, embeddings);
+    kb.load();
+    retriever = new VectorRetriever(kb, embeddings);
+  }
+
+  @Test
+  void embedsEveryChunkAtLoad() {
+    var vectors = kb.snapshot().vectors();
+    assertThat(vectors.rows()).isEqualTo(kb.all().size());
+    assertThat(vectors.dim()).isEqualTo(256);
+  }
+
+  @Test
+  void findsNearestChunksWithinCallerVisibility() {
+    var top = retriever.topK("iPhone Details units ASP", ANALYST, 3);
+    assertThat(top.getFirst().title()).startsWith("iPhone Details");
+
+    assertThat(retriever.topK("iPhone Details units ASP", GUEST, 10))
+            .isNotEmpty()
+            .allMatch(c -> c.minRole() == KbChunk.MinRole.GUEST);
+  }
+
+  @Test
+  void simdAndScalarKernelsAgree() throws Exception {
+    int rows = 7, dim = 37; // odd size exercises the scalar tail
+    var rnd = new Random(42);
+    ByteBuffer data = ByteBuffer.allocateDirect(rows * dim * Float.BYTES).order(ByteOrder.nativeOrder());
+    for (int i = 0; i < rows * dim; i++) data.putFloat(i * Float.BYTES, rnd.nextFloat() - 0.5f);
+    float[] q = new float[dim];
+    for (int i = 0; i < dim; i++) q[i] = rnd.nextFloat() - 0.5f;
+
+    var simd = EmbeddingMatrix.simd(data, dim);
+    var scalar = new ScalarRowDot(data, dim);
+    for (int r = 0; r < rows; r++) {
+      assertThat(simd.dot(r, q)).isCloseTo(scalar.dot(r, q), within(1e-4f));
+      assertThat(simd.dot(r, 0)).isCloseTo(scalar.dot(r, 0), within(1e-4f));
+    }
+  }
+
+  @Test
+  void hnswMatchesBruteForceAndFiltersDuringTraversal() {
+    int rows = 3000, dim = 32, k = 10;
+    var rnd = new Random(7);
+    float[][] centers = new float[20][dim];
+    for (float[] c : centers) for (int i = 0; i < dim; i++) c[i] = (float) rnd.nextGaussian();
+    var vectors = EmbeddingMatrix.build(rows, r -> {
+      float[] v = centers[r % centers.length].clone();
+      for (int i = 0; i < dim; i++) v[i] += (float) rnd.nextGaussian() * 0.5f;
+      return v;
+    });
+    var ann = HnswIndex.build(vectors, new HnswIndex.Params(16, 200, 64));
+    List<KbChunk> ordinals = IntStream.range(0, rows)
+            .mapToObj(i -> new KbChunk(UUID.randomUUID(), String.valueOf(i), "", "", null,
+                    KbChunk.AccessScope.DETAIL, KbChunk.MinRole.GUEST, Set.of()))
+            .toList();
+    ChunkBitSet all = ChunkBitSet.of(rows, i -> true);
+    ChunkBitSet odd = ChunkBitSet.of(rows, i -> i % 2 == 1);
+
+    int hits = 0, queries = 50;
+    for (int n = 0; n < queries; n++) {
+      float[] q = EmbeddingMatrix.normalize(vectors.row(rnd.nextInt(rows)));
+      var exact = new KbTopK(k);
+      for (int r = 0; r < rows; r++) exact.offer(r, vectors.dot(r, q));
+      var approx = new KbTopK(k);
+      ann.search(q, all, 64, approx);
+      var expected = new HashSet<>(exact.toList(ordinals));
+      hits += (int) approx.toList(ordinals).stream().filter(expected::contains).count();
+
+      var filtered = new KbTopK(k);
+      ann.search(q, odd, 64, filtered);
+      assertThat(filtered.toList(ordinals)).hasSize(k)
+              .allMatch(c -> Integer.parseInt(c.docId()) % 2 == 1);
+    }
+    assertThat(hits / (double) (queries * k)).isGreaterThan(0.95);
+  }
+}
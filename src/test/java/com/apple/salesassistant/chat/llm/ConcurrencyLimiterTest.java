@@ -0,0 +1,100 @@
+package com.apple.salesassistant.chat.llm;
+
+import com.apple.salesassistant.chat.llm.ConcurrencyLimiter.Outcome;
+import com.apple.salesassistant.chat.llm.ConcurrencyLimiter.Priority;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
+
+class ConcurrencyLimiterTest {
+
+  private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+
+  private ConcurrencyLimiter limiter(String initial, String queue, String maxWaitMs) {
+    return new ConcurrencyLimiter("ollama", new MockEnvironment()
+        .withProperty("llm.limit.initial", "64")
+        .withProperty("llm.limit.ollama.initial", initial)
+        .withProperty("llm.limit.ollama.queue", queue)
+        .withProperty("llm.limit.ollama.max-wait-ms", maxWaitMs), meters);
+  }
+
+  @Test
+  void overTheLimitAndWithAFullQueueCallsAreRefusedAtOnceWithRetryAfter() {
+    var limiter = limiter("1", "0", "5000");
+    var held = limiter.acquire(Priority.LOW);
+
+    long start = System.nanoTime();
+    assertThatThrownBy(() -> limiter.acquire(Priority.HIGH))
+        .isInstanceOfSatisfying(LlmOverloadedException.class, e -> {
+          assertThat(e.getStatusCode().value()).isEqualTo(429);
+          assertThat(e.getHeaders().getFirst("Retry-After")).isEqualTo("1");
+        });
+    assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(1000);
+    assertThat(meters.get("llm.limit.rejected").tag("priority", "high").counter().count()).isEqualTo(1);
+
+    held.release(Outcome.SUCCESS);
+    limiter.acquire(Priority.LOW).release(Outcome.SUCCESS);
+  }
+
+  @Test
+  void analystsAreAdmittedBeforeGuestsAndPushThemOutOfAFullQueue() throws Exception {
+    var limiter = limiter("1", "2", "5000");
+    var held = limiter.acquire(Priority.LOW);
+    List<String> admitted = new CopyOnWriteArrayList<>();
+    try (var threads = Executors.newVirtualThreadPerTaskExecutor()) {
+      Future<?> guest1 = threads.submit(() -> run(limiter, Priority.LOW, "guest1", admitted));
+      while (limiter.queued() < 1) Thread.sleep(5);
+      Future<?> guest2 = threads.submit(() -> run(limiter, Priority.LOW, "guest2", admitted));
+      while (limiter.queued() < 2) Thread.sleep(5);
+      Future<?> analyst = threads.submit(() -> run(limiter, Priority.HIGH, "analyst", admitted));
+      while (meters.get("llm.limit.rejected").tag("priority", "low").counter().count() < 1) Thread.sleep(5);
+
+      held.release(Outcome.IGNORED);
+      analyst.get();
+      guest1.get();
+      assertThatThrownBy(guest2::get).hasCauseInstanceOf(LlmOverloadedException.class);
+    }
+    assertThat(admitted).containsExactly("analyst", "guest1");
+    assertThat(limiter.inFlight()).isZero();
+  }
+
+  @Test
+  void limitShrinksWhenCallsFailOrSlowDownAndGrowsWhileLatencyHolds() throws Exception {
+    var limiter = limiter("10", "0", "0");
+    for (int i = 0; i < 3; i++) limiter.acquire(Priority.LOW).release(Outcome.FAILURE);
+    assertThat(limiter.limit()).isCloseTo(10 * 0.9 * 0.9 * 0.9, offset(1e-9));
+
+    double before = limiter.limit();
+    List<ConcurrencyLimiter.Permit> busy = new ArrayList<>();
+    for (int i = 0; i < 6; i++) busy.add(limiter.acquire(Priority.LOW));   // using the limit
+    for (var p : busy) p.release(Outcome.SUCCESS);
+    assertThat(limiter.limit()).isGreaterThan(before);
+
+    double fast = limiter.limit();
+    var slow = limiter.acquire(Priority.LOW);
+    Thread.sleep(200);   // far above the long-run average of near-instant calls
+    slow.release(Outcome.SUCCESS);
+    assertThat(limiter.limit()).isLessThan(fast);
+  }
+
+  private static void run(ConcurrencyLimiter limiter, Priority priority, String name, List<String> admitted) {
+    var permit = limiter.acquire(priority);
+    admitted.add(name);
+    try {
+      Thread.sleep(20);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+    permit.release(Outcome.SUCCESS);
+  }
+}
@@ -0,0 +1,130 @@
+package com.apple.salesassistant.chat.llm;
+
+import com.apple.salesassistant.configuration.LlmRuntimeProps;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LlmProviderSelectorTest {
+
+  private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+
+  /** Streams its answer in two deltas after {@code delayMs}, or fails when {@code failing} is set. */
+  private static final class Fake implements LlmProvider {
+    final String key;
+    final long delayMs;
+    final AtomicBoolean failing = new AtomicBoolean();
+    final AtomicInteger calls = new AtomicInteger();
+
+    Fake(String key, long delayMs) {
+      this.key = key;
+      this.delayMs = delayMs;
+    }
+
+    @Override
+    public String chat(List<Map<String, String>> messages) {
+      return stream(messages, d -> {});
+    }
+
+    @Override
+    public String stream(List<Map<String, String>> messages, Consumer<String> onDelta) {
+      calls.incrementAndGet();
+      try {
+        Thread.sleep(delayMs);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException("interrupted", e);
+      }
+      if (failing.get()) throw new IllegalStateException(key + " is down");
+      onDelta.accept("from ");
+      onDelta.accept(key);
+      return "from " + key;
+    }
+
+    @Override
+    public String key() {
+      return key;
+    }
+  }
+
+  private LlmProviderSelector selector(Fake... providers) {
+    var env = new MockEnvironment()
+        .withProperty("llm.routing.mode", "latency")
+        .withProperty("llm.routing.providers", "primary,secondary")
+        .withProperty("llm.routing.hedge.min-delay-ms", "100")
+        .withProperty("llm.routing.hedge.max-delay-ms", "100")
+        .withProperty("llm.routing.ewma-alpha", "0.5")
+        .withProperty("llm.routing.circuit.min-calls", "2")
+        .withProperty("llm.routing.circuit.open-ms", "300");
+    return new LlmProviderSelector(List.of(providers), new LlmRuntimeProps("primary", null), env, meters);
+  }
+
+  @Test
+  void fixedModeAlwaysCallsTheConfiguredProvider() {
+    var primary = new Fake("primary", 0);
+    var secondary = new Fake("secondary", 0);
+    var selector = new LlmProviderSelector(List.of(primary, secondary), new LlmRuntimeProps("primary", null),
+        new MockEnvironment(), meters);
+
+    assertThat(selector.call(null, (p, d) -> p.chat(List.of()))).isEqualTo("from primary");
+    assertThat(secondary.calls).hasValue(0);
+  }
+
+  @Test
+  void slowPrimaryIsHedgedAndOnlyTheWinnersDeltasAreForwarded() {
+    var primary = new Fake("primary", 3000);
+    var secondary = new Fake("secondary", 0);
+    var selector = selector(primary, secondary);
+    List<String> deltas = new CopyOnWriteArrayList<>();
+
+    long start = System.nanoTime();
+    String answer = selector.call(deltas::add, (p, d) -> p.stream(List.of(), d));
+
+    assertThat(answer).isEqualTo("from secondary");
+    assertThat(deltas).containsExactly("from ", "secondary");
+    assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(2000);
+    assertThat(meters.get("llm.routing.hedges").tag("provider", "secondary").tag("result", "won").counter().count())
+        .isEqualTo(1);
+    assertThat(meters.get("llm.routing.decisions").tag("provider", "secondary").tag("role", "hedge").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void failingProviderFallsBackThenItsCircuitOpensAndRecoversAfterAProbe() throws Exception {
+    var primary = new Fake("primary", 0);
+    var secondary = new Fake("secondary", 20);
+    primary.failing.set(true);
+    var selector = selector(primary, secondary);
+
+    for (int i = 0; i < 3; i++) assertThat(selector.call(null, (p, d) -> p.chat(List.of()))).isEqualTo("from secondary");
+    assertThat(primary.calls).hasValue(2);   // open after min-calls failures: the third call skipped it
+    assertThat(meters.get("llm.routing.circuit").tag("provider", "primary").gauge().value()).isEqualTo(1);
+    assertThat(meters.get("llm.routing.decisions").tag("provider", "secondary").tag("role", "fallback").counter().count()).isEqualTo(2);
+
+    primary.failing.set(false);
+    Thread.sleep(350);
+    assertThat(selector.call(null, (p, d) -> p.chat(List.of()))).isEqualTo("from primary");   // the probe
+    assertThat(meters.get("llm.routing.circuit").tag("provider", "primary").gauge().value()).isZero();
+  }
+
+  @Test
+  void whenEveryProviderFailsTheFirstErrorIsThrown() {
+    var primary = new Fake("primary", 0);
+    var secondary = new Fake("secondary", 0);
+    primary.failing.set(true);
+    secondary.failing.set(true);
+    var selector = selector(primary, secondary);
+
+    assertThatThrownBy(() -> selector.call(null, (p, d) -> p.chat(List.of())))
+        .hasMessage("primary is down")
+        .satisfies(e -> assertThat(e.getSuppressed()).extracting(Throwable::getMessage).containsExactly("secondary is down"));
+  }
+}
@@ -0,0 +1,110 @@
+package com.apple.salesassistant.chat.llm;
+
+import com.apple.salesassistant.configuration.OllamaConfig;
+import com.apple.salesassistant.configuration.OpenAiConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class LlmStreamingTest {
+
+  private static final List<Map<String, String>> MESSAGES = List.of(Map.of("role", "user", "content", "Hi"));
+
+  private static final OllamaConfig OLLAMA = new OllamaConfig("http://ollama.test", "llama3.2", null, 60, null, "30m", 8192);
+
+  private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+
+  @Test
+  void openAiForwardsEachSseDeltaAndStopsAtDone() {
+    var rest = new RestTemplate();
+    var server = MockRestServiceServer.bindTo(rest).build();
+    server.expect(requestTo("http://openai.test/v1/chat/completions"))
+        .andExpect(jsonPath("$.stream").value(true))
+        .andExpect(jsonPath("$.stream_options.include_usage").value(true))
+        .andRespond(withSuccess("""
+            data: {"choices":[{"delta":{"role":"assistant"}}]}
+
+            data: {"choices":[{"delta":{"content":"Hel"}}]}
+
+            data: {"choices":[{"delta":{"content":"lo there"}}]}
+
+            data: {"choices":[],"usage":{"prompt_tokens":12,"completion_tokens":3,"prompt_tokens_details":{"cached_tokens":8}}}
+
+            data: [DONE]
+
+            data: {"choices":[{"delta":{"content":"ignored"}}]}
+            """, MediaType.TEXT_EVENT_STREAM));
+    var provider = new OpenAiProvider(new OpenAiConfig("key", "http://openai.test/", "gpt-4o-mini", 60, null), rest,
+        new LlmMetrics(meters));
+
+    List<String> deltas = new ArrayList<>();
+    assertThat(provider.stream(MESSAGES, deltas::add)).isEqualTo("Hello there");
+    assertThat(deltas).containsExactly("Hel", "lo there");
+    server.verify();
+    assertThat(meters.get("llm.tokens.prompt").tags("provider", "openai", "model", "gpt-4o-mini", "outcome", "success")
+        .summary().totalAmount()).isEqualTo(12);
+    assertThat(meters.get("llm.tokens.completion").summary().totalAmount()).isEqualTo(3);
+    assertThat(meters.get("llm.tokens.cached").summary().totalAmount()).isEqualTo(8);
+    assertThat(meters.get("llm.ttft").timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  void ollamaForwardsEachNdjsonLine() {
+    var rest = new RestTemplate();
+    var server = MockRestServiceServer.bindTo(rest).build();
+    server.expect(requestTo("http://ollama.test/api/chat"))
+        .andExpect(jsonPath("$.stream").value(true))
+        .andExpect(jsonPath("$.keep_alive").value("30m"))
+        .andExpect(jsonPath("$.options.num_ctx").value(8192))
+        .andRespond(withSuccess("""
+            {"message":{"role":"assistant","content":" Units"},"done":false}
+            {"message":{"role":"assistant","content":" rose"},"done":false}
+            {"message":{"role":"assistant","content":""},"done":true,"prompt_eval_count":40,"eval_count":2,"eval_duration":500000000}
+            """, MediaType.APPLICATION_NDJSON));
+    var provider = new OllamaProvider();
+    ReflectionTestUtils.setField(provider, "restTemplate", rest);
+    ReflectionTestUtils.setField(provider, "ollamaConfig", OLLAMA);
+    ReflectionTestUtils.setField(provider, "metrics", new LlmMetrics(meters));
+
+    List<String> deltas = new ArrayList<>();
+    assertThat(provider.stream(MESSAGES, deltas::add)).isEqualTo(" Units rose");
+    assertThat(deltas).containsExactly(" Units", " rose");
+    assertThat(meters.get("llm.tokens.prompt").tags("provider", "ollama", "model", "llama3.2").summary().totalAmount())
+        .isEqualTo(40);
+    // eval_count over eval_duration: 2 tokens in 0.5 s
+    assertThat(meters.get("llm.tokens.per.second").summary().totalAmount()).isEqualTo(4.0);
+  }
+
+  @Test
+  void aReceiverThatStopsTheStreamIsCountedAsCancelled() {
+    var rest = new RestTemplate();
+    var server = MockRestServiceServer.bindTo(rest).build();
+    server.expect(requestTo("http://ollama.test/api/chat"))
+        .andRespond(withSuccess("""
+            {"message":{"role":"assistant","content":"Units"},"done":false}
+            {"message":{"role":"assistant","content":" rose"},"done":false}
+            """, MediaType.APPLICATION_NDJSON));
+    var provider = new OllamaProvider();
+    ReflectionTestUtils.setField(provider, "restTemplate", rest);
+    ReflectionTestUtils.setField(provider, "ollamaConfig", OLLAMA);
+    ReflectionTestUtils.setField(provider, "metrics", new LlmMetrics(meters));
+
+    assertThatThrownBy(() -> provider.stream(MESSAGES, delta -> {
+      throw new IllegalStateException("client went away");
+    })).isInstanceOf(RuntimeException.class);
+    assertThat(meters.get("llm.generation").tag("outcome", "cancelled").timer().count()).isEqualTo(1);
+    assertThat(meters.find("llm.generation").tag("outcome", "error").timer()).isNull();
+  }
+}
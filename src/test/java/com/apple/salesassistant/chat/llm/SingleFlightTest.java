@@ -0,0 +1,190 @@
+package com.apple.salesassistant.chat.llm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+  private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+  private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+
+  private SingleFlight flight(String timeoutMs) {
+    return new SingleFlight(new MockEnvironment().withProperty("llm.coalesce.timeout-ms", timeoutMs), meters);
+  }
+
+  /** Leader call that publishes "Hel", then blocks until released, then publishes "lo" and returns. */
+  private static final class Gate {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger();
+
+    String call(Consumer<String> publish) {
+      calls.incrementAndGet();
+      publish.accept("Hel");
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      publish.accept("lo");
+      return "Hello";
+    }
+  }
+
+  @Test
+  void concurrentIdenticalCallsShareOneProviderCallAndItsDeltas() throws Exception {
+    var flight = flight("5000");
+    var gate = new Gate();
+    List<String> leaderDeltas = new CopyOnWriteArrayList<>();
+    var leader = threads.submit(() -> flight.run("k", leaderDeltas::add, gate::call));
+    gate.started.await();
+
+    List<List<String>> followerDeltas = new ArrayList<>();
+    List<Future<String>> followers = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      List<String> deltas = new CopyOnWriteArrayList<>();
+      followerDeltas.add(deltas);
+      followers.add(threads.submit(() -> flight.run("k", deltas::add, gate::call)));
+    }
+    var blocking = threads.submit(() -> flight.run("k", null, gate::call));
+    while (meters.get("llm.coalesced").counter().count() < 6) Thread.sleep(5);
+    gate.release.countDown();
+
+    assertThat(leader.get()).isEqualTo("Hello");
+    assertThat(blocking.get()).isEqualTo("Hello");
+    for (var f : followers) assertThat(f.get()).isEqualTo("Hello");
+    assertThat(gate.calls).hasValue(1);
+    assertThat(leaderDeltas).containsExactly("Hel", "lo");
+    // late joiners get what was already produced, then the rest live
+    assertThat(followerDeltas).allSatisfy(d -> assertThat(String.join("", d)).isEqualTo("Hello"));
+    assertThat(flight.inFlight()).isZero();
+  }
+
+  @Test
+  void followerOfANonStreamingCallReceivesTheWholeAnswerAtTheEnd() throws Exception {
+    var flight = flight("5000");
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var leader = threads.submit(() -> flight.run("k", null, publish -> {
+      started.countDown();
+      try { release.await(); } catch (InterruptedException e) { throw new IllegalStateException(e); }
+      return "Hello";
+    }));
+    started.await();
+    List<String> deltas = new CopyOnWriteArrayList<>();
+    var follower = threads.submit(() -> flight.run("k", deltas::add, publish -> "unused"));
+    while (meters.get("llm.coalesced").counter().count() < 1) Thread.sleep(5);
+    release.countDown();
+
+    assertThat(follower.get()).isEqualTo("Hello");
+    assertThat(leader.get()).isEqualTo("Hello");
+    assertThat(deltas).containsExactly("Hello");
+  }
+
+  @Test
+  void failureReachesEveryWaiterAndSlowCallTimesFollowersOut() throws Exception {
+    var flight = flight("5000");
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var leader = threads.submit(() -> flight.run("k", null, publish -> {
+      started.countDown();
+      try { release.await(); } catch (InterruptedException e) { throw new IllegalStateException(e); }
+      throw new IllegalStateException("provider down");
+    }));
+    started.await();
+    var follower = threads.submit(() -> flight.run("k", null, publish -> "unused"));
+    while (meters.get("llm.coalesced").counter().count() < 1) Thread.sleep(5);
+    release.countDown();
+    assertThatThrownBy(leader::get).hasRootCauseMessage("provider down");
+    assertThatThrownBy(follower::get).hasCauseInstanceOf(IllegalStateException.class).hasRootCauseMessage("provider down");
+
+    var slow = flight("50");
+    var gate = new Gate();
+    var slowLeader = threads.submit(() -> slow.run("k", null, gate::call));
+    gate.started.await();
+    assertThatThrownBy(() -> slow.run("k", null, gate::call)).hasMessageContaining("Timed out after 50 ms");
+    gate.release.countDown();
+    assertThat(slowLeader.get()).isEqualTo("Hello");
+  }
+
+  @Test
+  void followerGetsTheLeadersStatusException() throws Exception {
+    var flight = flight("5000");
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var leader = threads.submit(() -> flight.run("k", null, publish -> {
+      started.countDown();
+      try { release.await(); } catch (InterruptedException e) { throw new IllegalStateException(e); }
+      throw new LlmOverloadedException("ollama", 7);
+    }));
+    started.await();
+    var follower = threads.submit(() -> flight.run("k", null, publish -> "unused"));
+    while (meters.get("llm.coalesced").counter().count() < 1) Thread.sleep(5);
+    release.countDown();
+
+    assertThatThrownBy(leader::get).cause().isInstanceOf(LlmOverloadedException.class);
+    assertThatThrownBy(follower::get).cause()
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> {
+          assertThat(e.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+          assertThat(e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("7");
+        });
+  }
+
+  @Test
+  void followerWhoseClientLeftIsDetachedWithoutAbortingTheCall() throws Exception {
+    var flight = flight("5000");
+    var gate = new Gate();
+    List<String> leaderDeltas = new CopyOnWriteArrayList<>();
+    var leader = threads.submit(() -> flight.run("k", leaderDeltas::add, gate::call));
+    gate.started.await();
+    var gone = threads.submit(() -> flight.run("k", d -> {
+      throw new UncheckedIOException(new java.io.IOException("Broken pipe"));
+    }, gate::call));
+    while (meters.get("llm.coalesced").counter().count() < 1) Thread.sleep(5);
+    gate.release.countDown();
+
+    assertThat(leader.get()).isEqualTo("Hello");
+    assertThat(leaderDeltas).containsExactly("Hel", "lo");
+    assertThatThrownBy(gone::get).hasCauseInstanceOf(UncheckedIOException.class);
+    assertThat(gate.calls).hasValue(1);
+  }
+
+  @Test
+  void slowFollowerDoesNotHoldUpTheLeader() throws Exception {
+    var flight = flight("5000");
+    var gate = new Gate();
+    List<String> leaderDeltas = new CopyOnWriteArrayList<>();
+    var leader = threads.submit(() -> flight.run("k", leaderDeltas::add, gate::call));
+    gate.started.await();
+    var unblock = new CountDownLatch(1);
+    List<String> slowDeltas = new CopyOnWriteArrayList<>();
+    var slow = threads.submit(() -> flight.run("k", d -> {
+      try { unblock.await(); } catch (InterruptedException e) { throw new IllegalStateException(e); }
+      slowDeltas.add(d);
+    }, gate::call));
+    while (meters.get("llm.coalesced").counter().count() < 1) Thread.sleep(5);
+    gate.release.countDown();
+
+    // the slow client's first send has not returned, yet the leader reads and finishes the whole answer
+    assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("Hello");
+    assertThat(leaderDeltas).containsExactly("Hel", "lo");
+    unblock.countDown();
+    assertThat(slow.get()).isEqualTo("Hello");
+    assertThat(String.join("", slowDeltas)).isEqualTo("Hello");
+  }
+}
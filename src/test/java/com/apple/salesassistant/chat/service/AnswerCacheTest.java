@@ -0,0 +1,117 @@
+package com.apple.salesassistant.chat.service;
+
+import com.apple.salesassistant.chat.kb.InMemoryKb;
+import com.apple.salesassistant.chat.llm.EmbeddingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+
+class AnswerCacheTest {
+
+  @TempDir
+  Path dir;
+
+  private Path file;
+  private InMemoryKb kb;
+  private MockEnvironment env;
+  private SimpleMeterRegistry meters;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    file = dir.resolve("kb.txt");
+    Files.writeString(file, "# iPhone Summary — FY2024\nUnits: 220.0M\n");
+    env = new MockEnvironment()
+        .withProperty("kb.path", file.toUri().toString())
+        .withProperty("kb.vector.embedder", "hashing");
+    kb = new InMemoryKb(new DefaultResourceLoader(), env);
+    kb.load();
+    meters = new SimpleMeterRegistry();
+  }
+
+  private AnswerCache cache(StringRedisTemplate redis) {
+    @SuppressWarnings("unchecked")
+    ObjectProvider<StringRedisTemplate> provider = Mockito.mock(ObjectProvider.class);
+    Mockito.when(provider.getIfAvailable()).thenReturn(redis);
+    return new AnswerCache(kb, new EmbeddingService(null, env), provider, env, meters);
+  }
+
+  private static AnswerCache.Key key(AnswerCache cache, String model, String system, String question, String chunks) {
+    return cache.key("ollama", model, system, "ROLE=GUEST\nCONTEXT: " + chunks + "\nQUESTION:\n" + question,
+        "ROLE=GUEST\n" + chunks, question);
+  }
+
+  private double count(String result, String tier) {
+    return meters.get("llm.answer.cache").tag("result", result).tag("tier", tier).counter().count();
+  }
+
+  @Test
+  void exactPromptHitsLocallyAndKbOrSystemPromptChangeInvalidates() throws Exception {
+    var cache = cache(null);
+    var q = "iPhone units FY2024?";
+    assertThat(cache.get(key(cache, "llama3.2", "sys", q, "c1"))).isNull();
+    cache.put(key(cache, "llama3.2", "sys", q, "c1"), "220.0M");
+
+    assertThat(cache.get(key(cache, "llama3.2", "sys", q, "c1"))).isEqualTo("220.0M");
+    assertThat(cache.get(key(cache, "gpt-4o-mini", "sys", q, "c1"))).isNull();   // other model
+    assertThat(cache.get(key(cache, "llama3.2", "sys v2", q, "c1"))).isNull();   // system prompt changed
+    assertThat(cache.get(key(cache, "llama3.2", "sys", q, "c1"))).isNull();      // ... which dropped the tier
+    assertThat(count("hit", "local")).isEqualTo(1);
+
+    cache.put(key(cache, "llama3.2", "sys", q, "c1"), "220.0M");
+    Files.writeString(file, "# iPhone Summary — FY2024\nUnits: 231.0M\n");
+    assertThat(kb.reload()).isTrue();
+    assertThat(cache.get(key(cache, "llama3.2", "sys", q, "c1"))).isNull();
+  }
+
+  @Test
+  void redisTierSharesAnswersBetweenInstances() {
+    Map<String, String> store = new HashMap<>();
+    var redis = Mockito.mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    ValueOperations<String, String> ops = Mockito.mock(ValueOperations.class);
+    Mockito.when(redis.opsForValue()).thenReturn(ops);
+    Mockito.doAnswer(inv -> store.put(inv.getArgument(0), inv.getArgument(1)))
+        .when(ops).set(anyString(), anyString(), any(Duration.class));
+    Mockito.when(ops.get(anyString())).thenAnswer(inv -> store.get(inv.<String>getArgument(0)));
+    env.withProperty("chat.answer-cache.redis.enabled", "true");
+
+    var a = cache(redis);
+    var b = cache(redis);
+    a.put(key(a, "llama3.2", "sys", "iPhone units?", "c1"), "220.0M");
+
+    assertThat(store).hasSize(1).allSatisfy((k, v) -> assertThat(k).startsWith("llm:answer:"));
+    assertThat(b.get(key(b, "llama3.2", "sys", "iPhone units?", "c1"))).isEqualTo("220.0M");
+    assertThat(b.get(key(b, "llama3.2", "sys", "iPhone units?", "c1"))).isEqualTo("220.0M");
+    assertThat(count("hit", "redis")).isEqualTo(1);
+    assertThat(count("hit", "local")).isEqualTo(1);
+  }
+
+  @Test
+  void semanticTierMatchesRephrasedQuestionOnlyOverTheSameContext() {
+    env.withProperty("chat.answer-cache.semantic.enabled", "true")
+        .withProperty("chat.answer-cache.semantic.threshold", "0.9");
+    var cache = cache(null);
+    cache.put(key(cache, "llama3.2", "sys", "What were iPhone units in FY2024?", "c1,c2"), "220.0M");
+
+    assertThat(cache.get(key(cache, "llama3.2", "sys", "what were iPhone units in FY2024", "c1,c2"))).isEqualTo("220.0M");
+    assertThat(cache.get(key(cache, "llama3.2", "sys", "What were iPhone units in FY2024?", "c3"))).isNull();
+    assertThat(cache.get(key(cache, "llama3.2", "sys", "Services churn in EMEA?", "c1,c2"))).isNull();
+    assertThat(count("hit", "semantic")).isEqualTo(1);
+  }
+}
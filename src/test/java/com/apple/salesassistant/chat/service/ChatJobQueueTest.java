@@ -0,0 +1,219 @@
+package com.apple.salesassistant.chat.service;
+
+import com.apple.salesassistant.auth.api.filter.JwtAuthFilter;
+import com.apple.salesassistant.chat.dto.ConversationResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.core.context.SecurityContextHolder;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+
+/** Runs against an embedded Redis server. */
+class ChatJobQueueTest {
+
+  private static RedisServer server;
+  private static LettuceConnectionFactory connections;
+  private static StringRedisTemplate redis;
+
+  private final ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+  private final JwtAuthFilter.AuthUser analyst =
+      new JwtAuthFilter.AuthUser("u2", "analyst@demo", List.of("ROLE_ANALYST"), List.of("kb:read:detail"));
+  private ChatJobQueue queue;
+
+  @BeforeAll
+  static void startRedis() throws Exception {
+    int port;
+    try (var socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    server = new RedisServer(port);
+    server.start();
+    connections = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+    connections.afterPropertiesSet();
+    redis = new StringRedisTemplate(connections);
+  }
+
+  @AfterAll
+  static void stopRedis() throws Exception {
+    connections.destroy();
+    server.stop();
+  }
+
+  @BeforeEach
+  void setUp() {
+    redis.getConnectionFactory().getConnection().serverCommands().flushAll();
+    queue = queue("60000");
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    queue.stop();
+  }
+
+  private ChatJobQueue queue(String claimIdleMs) {
+    var q = new ChatJobQueue(redis, json, new MockEnvironment()
+        .withProperty("chat.jobs.block-ms", "100")
+        .withProperty("chat.jobs.claim-idle-ms", claimIdleMs));
+    q.start();
+    return q;
+  }
+
+  private static ConversationResult result(String answer) {
+    return new ConversationResult("c1", answer, "k1", 42, "ROLE=ANALYST", Instant.parse("2026-01-01T00:00:00Z"), 120);
+  }
+
+  @Test
+  void workerAnswersAsTheUserWhoQueuedAndWakesTheLongPoll() throws Exception {
+    var conversations = Mockito.mock(ConversationService.class);
+    AtomicReference<Object> ranAs = new AtomicReference<>();
+    Mockito.when(conversations.runJob(any())).thenAnswer(inv -> {
+      ranAs.set(SecurityContextHolder.getContext().getAuthentication().getPrincipal());
+      return result("48.2M units");
+    });
+    var job = new ChatJobQueue.Job(null, UUID.randomUUID(), UUID.randomUUID(), "APAC units?", analyst);
+
+    String id = queue.enqueue(job);
+    assertThat(queue.status(id).state()).isEqualTo(ChatJobQueue.State.queued);
+    var poll = queue.await(id, 10_000);
+    assertThat(poll).isNotDone();
+
+    var worker = new ChatJobWorker(queue, conversations, new MockEnvironment().withProperty("chat.jobs.workers", "1"));
+    worker.start();
+    try {
+      ChatJobQueue.Status done = poll.get(5, TimeUnit.SECONDS);
+      assertThat(done.state()).isEqualTo(ChatJobQueue.State.done);
+      assertThat(done.userId()).isEqualTo("u2");
+      assertThat(done.result()).isEqualTo(result("48.2M units"));
+    } finally {
+      worker.stop();
+    }
+    assertThat(ranAs.get()).isEqualTo(analyst);
+    assertThat(redis.opsForStream().size("chat:jobs")).isZero();   // acknowledged and removed
+  }
+
+  @Test
+  void failedJobIsReportedAndNotRetried() throws Exception {
+    var conversations = Mockito.mock(ConversationService.class);
+    Mockito.when(conversations.runJob(any())).thenThrow(new IllegalStateException("provider down"));
+    String id = queue.enqueue(new ChatJobQueue.Job(null, UUID.randomUUID(), UUID.randomUUID(), "q", analyst));
+
+    var worker = new ChatJobWorker(queue, conversations, new MockEnvironment());
+    queue.next("w").forEach(d -> worker.process("w", d));
+
+    var status = queue.await(id, 0).get();
+    assertThat(status.state()).isEqualTo(ChatJobQueue.State.failed);
+    assertThat(status.error()).isEqualTo("provider down");
+    assertThat(queue.next("w")).isEmpty();
+    assertThat(queue.reclaim("w")).isEmpty();
+  }
+
+  @Test
+  void jobOfAWorkerThatDiedIsReclaimedByAnother() throws Exception {
+    queue.stop();
+    queue = queue("50");
+    String id = queue.enqueue(new ChatJobQueue.Job(null, UUID.randomUUID(), UUID.randomUUID(), "q", analyst));
+
+    assertThat(queue.next("dead")).extracting(d -> d.job().id()).containsExactly(id);   // read, never acked
+    Thread.sleep(100);
+
+    var reclaimed = queue.reclaim("alive");
+    assertThat(reclaimed).extracting(d -> d.job().message()).containsExactly("q");
+    assertThat(queue.begin(id, "alive")).isEqualTo(ChatJobQueue.Claim.RUN);
+    queue.complete(id, result("ok"));
+    queue.ack(reclaimed.getFirst());
+    assertThat(queue.begin(id, "alive")).isEqualTo(ChatJobQueue.Claim.FINISHED);   // a late redelivery is only acknowledged
+    assertThat(queue.reclaim("alive")).isEmpty();
+  }
+
+  @Test
+  void retriedMessageGetsTheJobAlreadyAnsweringItUntilThatFails() {
+    UUID conversation = UUID.randomUUID();
+    String first = UUID.randomUUID().toString();
+    assertThat(queue.reserve(conversation, "q", first, analyst)).isNull();
+    // not queued yet (the request is still checking for duplicates): a retry still gets it
+    assertThat(queue.status(first).state()).isEqualTo(ChatJobQueue.State.reserved);
+    assertThat(queue.status(first).userId()).isEqualTo(analyst.id());
+    assertThat(queue.reserve(conversation, "q", "retry", analyst)).isEqualTo(first);
+    queue.enqueue(new ChatJobQueue.Job(first, conversation, UUID.randomUUID(), "q", analyst));
+
+    assertThat(queue.reserve(conversation, "q", "retry", analyst)).isEqualTo(first);
+    assertThat(queue.reserve(conversation, "other question", "other", analyst)).isNull();
+    assertThat(queue.reserve(UUID.randomUUID(), "q", "elsewhere", analyst)).isNull();
+
+    queue.fail(first, "provider down");
+    queue.release(conversation, "q", first);
+    assertThat(queue.status(first).state()).isEqualTo(ChatJobQueue.State.failed);   // the poller still sees why
+    assertThat(queue.reserve(conversation, "q", "retry", analyst)).isNull();
+    queue.release(conversation, "q", first);   // no longer first's: left alone
+    assertThat(queue.reserve(conversation, "q", "third", analyst)).isEqualTo("retry");
+
+    redis.delete("chat:jobs:retry");   // its job hash expired
+    assertThat(queue.reserve(conversation, "q", "third", analyst)).isNull();
+    queue.release(conversation, "q", "third");   // given up before queueing: nothing is left behind
+    assertThat(queue.status("third")).isNull();
+    assertThat(queue.reserve(conversation, "q", "fourth", analyst)).isNull();
+  }
+
+  @Test
+  void runningJobIsNotTakenOverWhileItsWorkerSendsHeartbeats() throws Exception {
+    queue.stop();
+    queue = queue("150");
+    String id = queue.enqueue(new ChatJobQueue.Job(null, UUID.randomUUID(), UUID.randomUUID(), "q", analyst));
+    var delivery = queue.next("slow").getFirst();
+    assertThat(queue.begin(id, "slow")).isEqualTo(ChatJobQueue.Claim.RUN);
+
+    for (int i = 0; i < 4; i++) {   // runs for longer than the claim idle time
+      Thread.sleep(60);
+      assertThat(queue.heartbeat(id, "slow")).isTrue();
+    }
+    var reclaimed = queue.reclaim("other");
+    assertThat(reclaimed).hasSize(1);
+    assertThat(queue.begin(id, "other")).isEqualTo(ChatJobQueue.Claim.TAKEN);
+    assertThat(queue.heartbeat(id, "other")).isFalse();
+
+    Thread.sleep(200);   // the slow worker died: its lease lapses
+    assertThat(queue.begin(id, "other")).isEqualTo(ChatJobQueue.Claim.RUN);
+    queue.complete(id, result("ok"));
+    queue.ack(delivery);
+  }
+
+  @Test
+  void jobIsNotAcknowledgedWhenItsOutcomeCannotBeWritten() {
+    var failing = Mockito.mock(ChatJobQueue.class);
+    var job = new ChatJobQueue.Job("j1", UUID.randomUUID(), UUID.randomUUID(), "q", analyst);
+    var delivery = new ChatJobQueue.Delivery(org.springframework.data.redis.connection.stream.RecordId.of("1-0"), job);
+    var conversations = Mockito.mock(ConversationService.class);
+    var worker = new ChatJobWorker(failing, conversations, new MockEnvironment());
+
+    Mockito.when(failing.begin("j1", "w")).thenThrow(new IllegalStateException("connection reset"));
+    worker.process("w", delivery);
+
+    Mockito.reset(failing);
+    Mockito.when(failing.begin("j1", "w")).thenReturn(ChatJobQueue.Claim.RUN);
+    Mockito.when(failing.claimIdle()).thenReturn(java.time.Duration.ofMinutes(5));
+    Mockito.when(conversations.runJob(job)).thenReturn(result("ok"));
+    Mockito.doThrow(new IllegalStateException("connection reset")).when(failing).complete(any(), any());
+    worker.process("w", delivery);
+
+    Mockito.verify(failing, Mockito.never()).ack(any());
+  }
+}
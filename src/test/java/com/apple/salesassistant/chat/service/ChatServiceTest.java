@@ -0,0 +1,32 @@
+package com.apple.salesassistant.chat.service;
+
+import com.apple.salesassistant.chat.kb.KbChunk;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatServiceTest {
+
+  private static ContextPacker.Packed packed(String doc, String title, String text) {
+    return new ContextPacker.Packed(new KbChunk(UUID.randomUUID(), doc, title, text, null,
+        KbChunk.AccessScope.DETAIL, KbChunk.MinRole.GUEST, Set.of()), text);
+  }
+
+  @Test
+  void promptIsTheSameWhateverOrderTheChunksWereRankedIn() {
+    var emea = packed("emea.md", "EMEA Summary", "Mac units rose in Germany.");
+    var apac = packed("apac.md", "APAC Summary", "iPhone units rose in India.");
+
+    var byScore = ChatService.buildPrompt("ROLE=ANALYST", new ContextPacker.PackedContext(List.of(emea, apac), 20), "Units?");
+    var reranked = ChatService.buildPrompt("ROLE=ANALYST", new ContextPacker.PackedContext(List.of(apac, emea), 20), "Units?");
+
+    assertThat(byScore).isEqualTo(reranked);
+    assertThat(byScore.instructions()).startsWith("ROLE=ANALYST\n");
+    assertThat(byScore.user()).startsWith("CONTEXT:\n### APAC Summary").endsWith("QUESTION:\nUnits?");
+    assertThat(byScore.user().indexOf("APAC")).isLessThan(byScore.user().indexOf("EMEA"));
+  }
+}
@@ -0,0 +1,48 @@
+package com.apple.salesassistant.chat.service;
+
+import com.apple.salesassistant.chat.kb.KbChunk;
+import com.apple.salesassistant.chat.llm.TokenEstimator;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextPackerTest {
+
+  private static KbChunk chunk(String doc, String title, String text) {
+    return new KbChunk(UUID.randomUUID(), doc, title, text, null,
+            KbChunk.AccessScope.DETAIL, KbChunk.MinRole.GUEST, Set.of());
+  }
+
+  @Test
+  void dropsDuplicatesStripsOverlapAndStaysWithinBudget() {
+    var packer = new ContextPacker(new MockEnvironment()
+            .withProperty("chat.context.budget-tokens.default", "1000")
+            .withProperty("chat.context.budget-tokens.ollama", "60"));
+    var first = chunk("apac.md", "APAC Summary", "APAC revenue grew 8%.\nServices led growth in Japan.");
+    var copy = chunk("apac.md", "APAC Summary", "APAC revenue grew 8%.\nServices led growth in Japan.");
+    var next = chunk("apac.md", "APAC Summary", "Services led growth in Japan.\niPhone units rose in India.");
+
+    var packed = packer.pack("APAC iPhone revenue", List.of(first, copy, next), packer.budget("openai"));
+    assertThat(packed.chunks()).extracting(ContextPacker.Packed::chunk).containsExactly(first, next);
+    assertThat(packed.chunks().get(1).text()).isEqualTo("iPhone units rose in India.");
+    int expected = packed.chunks().stream()
+            .mapToInt(p -> TokenEstimator.estimate(ContextPacker.header(p.chunk())) + TokenEstimator.estimate(p.text()))
+            .sum();
+    assertThat(packed.tokens()).isEqualTo(expected);
+
+    var filler = IntStream.range(0, 6)
+            .mapToObj(i -> "Retail footnote %d about store hours and staffing levels. ".formatted(i))
+            .collect(Collectors.joining());
+    var longChunk = chunk("apac.md", "APAC Details", filler + "iPhone revenue in APAC was 70.1B. " + filler);
+    var tight = packer.pack("APAC iPhone revenue", List.of(longChunk), packer.budget("ollama"));
+    assertThat(tight.tokens()).isLessThanOrEqualTo(60);
+    assertThat(tight.chunks().getFirst().text()).isEqualTo("iPhone revenue in APAC was 70.1B.");
+  }
+}
@@ -0,0 +1,65 @@
+package com.apple.salesassistant.configuration;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LlmHttpClientConfigTest {
+
+  private HttpServer server;
+  private String url;
+
+  @BeforeEach
+  void start() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", ex -> {
+      byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+      ex.sendResponseHeaders(200, body.length);
+      ex.getResponseBody().write(body);
+      ex.close();
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+  }
+
+  @AfterEach
+  void stop() {
+    server.stop(0);
+  }
+
+  @Test
+  void limitsConcurrentRequestsUntilResponseIsClosedAndPublishesPoolMeters() {
+    var meters = new SimpleMeterRegistry();
+    RestTemplate rest = LlmHttpClientConfig.build(new RestTemplateBuilder(), "ollama",
+        new LlmHttpProps(HttpClient.Version.HTTP_1_1, 1, 1), 5, meters, false);
+
+    assertThat(rest.getForObject(url, String.class)).isEqualTo("ok");
+    assertThat(rest.getForObject(url, String.class)).isEqualTo("ok");
+
+    // while one response is open (e.g. a stream being read) the only slot is taken
+    rest.execute(url, HttpMethod.GET, null, response -> {
+      assertThat(meters.get("llm.http.pool.active").tag("provider", "ollama").gauge().value()).isEqualTo(1);
+      assertThatThrownBy(() -> rest.getForObject(url, String.class))
+          .isInstanceOf(ResourceAccessException.class)
+          .hasMessageContaining("No free ollama connection slot");
+      return null;
+    });
+
+    assertThat(meters.get("llm.http.pool.active").tag("provider", "ollama").gauge().value()).isZero();
+    assertThat(meters.get("llm.http.pool.max").tag("provider", "ollama").gauge().value()).isEqualTo(1);
+    assertThat(meters.get("llm.http.pool.acquire").tag("provider", "ollama").timer().count()).isEqualTo(4);
+  }
+}